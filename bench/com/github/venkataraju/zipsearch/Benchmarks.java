@@ -0,0 +1,207 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks over a {@link CorpusGenerator} corpus: entry name matching,
+ * listing, full searches (both scan modes, nested, contents) and draining
+ * {@link ZipSearcher#getNewResults()} while the workers add results.
+ * <p>
+ * Each benchmark is run for some warm up iterations, then measured. Reported
+ * per op (an entry name matched, a file searched or a result drained): time,
+ * bytes allocated by the benchmark thread (the name matching and draining run
+ * in it) and GCs during the measured iterations (for the searches, whose
+ * allocations are in the workers).
+ * <p>
+ * Usage: Benchmarks &lt;corpus dir&gt; [name prefix]. Iterations are set by
+ * the bench.warmups (default 3) and bench.iterations (default 5) system
+ * properties
+ */
+final class Benchmarks {
+    private interface Benchmark {
+        /**
+         * @return No. of ops done
+         */
+        long run() throws Exception;
+    }
+
+    private static final int WARMUPS = Integer.getInteger("bench.warmups", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+
+    private final Path corpus;
+    private final String prefix;
+    // Keeps the results, so the JIT can't drop the work
+    private long blackhole;
+
+    private Benchmarks(Path corpus, String prefix) {
+        this.corpus = corpus;
+        this.prefix = prefix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Benchmarks <corpus dir> [name prefix]");
+            System.exit(2);
+        }
+        Path corpus = Paths.get(args[0]);
+        if (!Files.isDirectory(corpus.resolve("huge"))) {
+            System.err.println("Not a corpus. Generate using CorpusGenerator: " + corpus);
+            System.exit(2);
+        }
+        new Benchmarks(corpus, (args.length > 1) ? args[1] : "").runAll();
+    }
+
+    private void runAll() throws Exception {
+        System.out.printf("%-28s %12s %14s %12s %8s%n", "Benchmark", "ms/iter", "ns/op", "B/op", "GCs");
+
+        List<String> names = names();
+        bench("match.substring", () -> match(EntryMatcher.parse(CorpusGenerator.NEEDLE, true), names));
+        bench("match.substring.ignoreCase", () -> match(EntryMatcher.parse(CorpusGenerator.NEEDLE, false), names));
+        bench("match.glob", () -> match(EntryMatcher.parse("glob:**/foo/*.class", true), names));
+        bench("match.regex", () -> match(EntryMatcher.parse("regex:.*/C1\\d*\\.class", true), names));
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            patterns.add("p" + i + "/q" + (i % 10) + "/C" + i + ".class");
+        bench("match.patterns.100", () -> match(new AhoCorasick(patterns, true), names));
+
+        bench("list.centralDirectory", this::listHuge);
+
+        bench("search.cd", () -> search(ZipSearcher.ScanMode.CENTRAL_DIRECTORY, false, null));
+        bench("search.stream", () -> search(ZipSearcher.ScanMode.STREAM, false, null));
+        bench("search.cd.nested", () -> search(ZipSearcher.ScanMode.CENTRAL_DIRECTORY, true, null));
+        bench("search.stream.nested", () -> search(ZipSearcher.ScanMode.STREAM, true, null));
+        bench("search.cd.content", () -> search(ZipSearcher.ScanMode.CENTRAL_DIRECTORY, false,
+                CorpusGenerator.NEEDLE_TEXT));
+
+        bench("drain.getNewResults", this::drain);
+        System.out.println("blackhole: " + blackhole);
+    }
+
+    private void bench(String name, Benchmark benchmark) throws Exception {
+        if (!name.startsWith(prefix))
+            return;
+        for (int i = 0; i < WARMUPS; i++)
+            benchmark.run();
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long gcsBefore = gcCount(), allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long ops = 0, start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            ops += benchmark.run();
+        long nanos = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long gcs = gcCount() - gcsBefore;
+
+        ops = Math.max(ops, 1);
+        System.out.printf(Locale.ROOT, "%-28s %12.1f %14.2f %12.2f %8d%n", name, nanos / 1e6 / ITERATIONS,
+                (double) nanos / ops, (double) allocated / ops, gcs);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(gc.getCollectionCount(), 0);
+        return count;
+    }
+
+    private long match(EntryMatcher matcher, List<String> names) {
+        long matches = 0;
+        for (String name : names)
+            if (matcher.matches(name))
+                matches++;
+        blackhole += matches;
+        return names.size();
+    }
+
+    /**
+     * Names of the huge jars and the small jars, in that order
+     */
+    private List<String> names() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Path archive : archives("huge"))
+            list(archive, entry -> names.add(entry.name.toString()));
+        for (Path archive : archives("small"))
+            list(archive, entry -> names.add(entry.name.toString()));
+        return names;
+    }
+
+    private long listHuge() throws IOException {
+        long[] count = {0};
+        for (Path archive : archives("huge"))
+            list(archive, entry -> count[0]++);
+        blackhole += count[0];
+        return count[0];
+    }
+
+    private interface EntryConsumer {
+        void accept(CentralDirectory.Entry entry);
+    }
+
+    private static void list(Path archive, EntryConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            CentralDirectory centralDirectory = CentralDirectory.read(ArchiveData.of(channel));
+            CentralDirectory.Entry entry = new CentralDirectory.Entry();
+            while (centralDirectory.next(entry))
+                consumer.accept(entry);
+        }
+    }
+
+    private List<Path> archives(String dir) throws IOException {
+        List<Path> archives = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(corpus.resolve(dir))) {
+            for (Path archive : ds)
+                archives.add(archive);
+        }
+        Collections.sort(archives);
+        return archives;
+    }
+
+    private long search(ZipSearcher.ScanMode scanMode, boolean nested, String content) {
+        AtomicLong hits = new AtomicLong();
+        ZipSearcher zipSearcher = new ZipSearcher(Collections.singletonList(corpus.toString()),
+                Arrays.asList("jar", "war"), nested, (content != null) ? "glob:**.class" : CorpusGenerator.NEEDLE, true)
+                .scanMode(scanMode)
+                .resultListener(result -> hits.incrementAndGet());
+        if (content != null)
+            zipSearcher.contentToSearch(content);
+        zipSearcher.startSearch();
+        blackhole += hits.get();
+        return zipSearcher.getNoOfFilesSearched();
+    }
+
+    /**
+     * Every class entry is a result, drained by this thread (as the UI does)
+     * while the workers add them
+     */
+    private long drain() throws InterruptedException {
+        ZipSearcher zipSearcher = new ZipSearcher(Collections.singletonList(corpus.toString()),
+                Arrays.asList("jar", "war"), true, "glob:**.class", true);
+        Thread searchThread = new Thread(zipSearcher::startSearch, "search");
+        searchThread.start();
+        long drained = 0;
+        while (searchThread.isAlive()) {
+            drained += zipSearcher.getNewResults().size();
+            Thread.yield();
+        }
+        searchThread.join();
+        drained += zipSearcher.getNewResults().size();
+        blackhole += drained;
+        return drained;
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a corpus of archives for the {@link Benchmarks}. Deterministic (fixed
+ * seed and entry times), so the same scale gives the same bytes and the same
+ * no. of hits:
+ * <ul>
+ * <li>small/ - Many small jars, half STORED, half DEFLATED</li>
+ * <li>huge/ - A few jars of 100k+ entries, i.e. Zip64</li>
+ * <li>nested/ - wars having jars having jars (3 levels), nested STORED and
+ * DEFLATED</li>
+ * </ul>
+ * Every {@value #NEEDLE_EVERY}th jar (of any kind, at any level) has
+ * {@value #NEEDLE}, and the class entries contain {@value #NEEDLE_TEXT} now
+ * and then.
+ * <p>
+ * Usage: CorpusGenerator &lt;dir&gt; [scale]. Scale (default 1) multiplies
+ * the no. of archives
+ */
+final class CorpusGenerator {
+    static final String NEEDLE = "org/foo/Bar.class";
+    static final String NEEDLE_TEXT = "needle";
+    static final int NEEDLE_EVERY = 10;
+
+    private static final long SEED = 0x5eedL;
+    // 2000-01-01 in the local zone, as setTime() stores the local DOS time. So that the archives don't change with
+    // the time or the zone of generation (setTimeLocal() is Java 9+)
+    private static final long ENTRY_TIME = LocalDateTime.of(2000, 1, 1, 0, 0).atZone(ZoneId.systemDefault())
+            .toInstant().toEpochMilli();
+
+    private final Random random = new Random(SEED);
+    private int noOfJars;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CorpusGenerator <dir> [scale]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        int scale = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        long start = System.nanoTime();
+        int noOfJars = new CorpusGenerator().generate(dir, scale);
+        System.err.printf("%d archives (nested included) in %s, %d ms%n", noOfJars, dir,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return No. of archives written, nested included
+     */
+    int generate(Path dir, int scale) throws IOException {
+        Path small = Files.createDirectories(dir.resolve("small"));
+        for (int i = 0; i < 500 * scale; i++)
+            Files.write(small.resolve(String.format("small-%05d.jar", i)), jar(20 + random.nextInt(80), i % 2 == 0));
+
+        Path huge = Files.createDirectories(dir.resolve("huge"));
+        for (int i = 0; i < 2 * scale; i++)
+            Files.write(huge.resolve(String.format("huge-%02d.jar", i)), jar(100_000 + random.nextInt(20_000), false));
+
+        Path nested = Files.createDirectories(dir.resolve("nested"));
+        for (int i = 0; i < 20 * scale; i++)
+            Files.write(nested.resolve(String.format("app-%03d.war", i)), war(i % 2 == 0));
+        return noOfJars;
+    }
+
+    /**
+     * 3 levels: war > WEB-INF/lib/*.jar > META-INF/lib/*.jar
+     */
+    private byte[] war(boolean storeNested) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            addClasses(zos, 50, false);
+            for (int i = 0; i < 8; i++) {
+                ByteArrayOutputStream jos = new ByteArrayOutputStream();
+                try (ZipOutputStream mid = new ZipOutputStream(jos)) {
+                    addClasses(mid, 200, false);
+                    for (int j = 0; j < 3; j++)
+                        add(mid, "META-INF/lib/inner-" + j + ".jar", jar(100, j % 2 == 0), storeNested);
+                }
+                noOfJars++;
+                add(zos, "WEB-INF/lib/lib-" + i + ".jar", jos.toByteArray(), storeNested);
+            }
+        }
+        noOfJars++;
+        return bos.toByteArray();
+    }
+
+    private byte[] jar(int noOfEntries, boolean stored) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            if (noOfJars % NEEDLE_EVERY == 0)
+                add(zos, NEEDLE, classBytes(), stored);
+            addClasses(zos, noOfEntries, stored);
+        }
+        noOfJars++;
+        return bos.toByteArray();
+    }
+
+    private void addClasses(ZipOutputStream zos, int noOfEntries, boolean stored) throws IOException {
+        for (int i = 0; i < noOfEntries; i++) {
+            String name = "com/example/p" + random.nextInt(100) + "/q" + random.nextInt(10) + "/C" + i + ".class";
+            add(zos, name, classBytes(), stored);
+        }
+    }
+
+    /**
+     * Compressible, as class files are
+     */
+    private byte[] classBytes() {
+        byte[] bytes = new byte[200 + random.nextInt(2000)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        if (random.nextInt(100) == 0) {
+            byte[] needle = NEEDLE_TEXT.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(needle, 0, bytes, random.nextInt(bytes.length - needle.length), needle.length);
+        }
+        return bytes;
+    }
+
+    private static void add(ZipOutputStream zos, String name, byte[] data, boolean stored) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.venkataraju.zipsearch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton, to find which of many patterns occur in an entry
+ * name in a single pass, i.e. in time linear to the name's length regardless
+ * of the no. of patterns.
+ * <p>
+ * As in the single file search, path separators (/ and \) and dots are
+ * treated the same (each one as a /), so that "org.foo.Bar.class" matches
+ * "org/foo/Bar.class".
+ * <p>
+ * Immutable (so thread safe) once built.
+ */
+final class AhoCorasick implements EntryMatcher {
+    private static final int ROOT = 0;
+
+    private final String[] patterns;
+    private final boolean caseSensitive;
+
+    // Edges of state s are [edgeStart[s], edgeStart[s + 1]), sorted by char
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+
+    private final int[] fail;
+    // Pattern ending at the state, -1 if none
+    private final int[] patternAt;
+    // Nearest state in the fail chain (excluding itself) where a pattern ends,
+    // -1 if none
+    private final int[] dictLink;
+
+    AhoCorasick(Collection<String> patterns, boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        this.patterns = patterns.toArray(new String[0]);
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> patternAtList = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        patternAtList.add(-1);
+
+        for (int p = 0; p < this.patterns.length; p++) {
+            // Separators are folded one to one, as in the names, so that
+            // "a..b" matches the name a..b
+            String pattern = this.patterns[p];
+            if (pattern.isEmpty())
+                throw new IllegalArgumentException("Empty pattern");
+            int state = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = fold(pattern.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    patternAtList.add(-1);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (patternAtList.get(state) == -1)
+                patternAtList.set(state, p); // Duplicate patterns are reported once
+        }
+
+        int noOfStates = trie.size();
+        edgeStart = new int[noOfStates + 1];
+        int noOfEdges = 0;
+        for (int s = 0; s < noOfStates; s++) {
+            edgeStart[s] = noOfEdges;
+            noOfEdges += trie.get(s).size();
+        }
+        edgeStart[noOfStates] = noOfEdges;
+        edgeChars = new char[noOfEdges];
+        edgeTargets = new int[noOfEdges];
+        for (int s = 0; s < noOfStates; s++) {
+            int e = edgeStart[s];
+            for (Map.Entry<Character, Integer> edge : trie.get(s).entrySet()) {
+                edgeChars[e] = edge.getKey();
+                edgeTargets[e++] = edge.getValue();
+            }
+        }
+
+        patternAt = new int[noOfStates];
+        for (int s = 0; s < noOfStates; s++)
+            patternAt[s] = patternAtList.get(s);
+
+        // Breadth first, so that the fail state of a state is done before it
+        fail = new int[noOfStates];
+        dictLink = new int[noOfStates];
+        Arrays.fill(dictLink, -1);
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int e = edgeStart[ROOT]; e < edgeStart[ROOT + 1]; e++) {
+            fail[edgeTargets[e]] = ROOT;
+            queue.add(edgeTargets[e]);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                int target = edgeTargets[e];
+                int f = fail[s];
+                int next;
+                while ((next = next(f, edgeChars[e])) == -1 && f != ROOT)
+                    f = fail[f];
+                fail[target] = (next == -1) ? ROOT : next;
+                dictLink[target] = (patternAt[fail[target]] != -1) ? fail[target] : dictLink[fail[target]];
+                queue.add(target);
+            }
+        }
+    }
+
+    String pattern(int index) {
+        return patterns[index];
+    }
+
+    /**
+     * Doesn't create any objects
+     */
+    @Override
+    public boolean matches(CharSequence entryName) {
+        return firstMatch(entryName) != -1;
+    }
+
+    @Override
+    public String[] matchedPatterns(CharSequence entryName) {
+        BitSet matches = allMatches(entryName);
+        String[] matchedPatterns = new String[matches.cardinality()];
+        for (int p = matches.nextSetBit(0), i = 0; p != -1; p = matches.nextSetBit(p + 1))
+            matchedPatterns[i++] = patterns[p];
+        return matchedPatterns;
+    }
+
+    /**
+     * Doesn't create any objects
+     *
+     * @return Index of a pattern occurring in the text, -1 if none
+     */
+    int firstMatch(CharSequence text) {
+        return scan(text, null);
+    }
+
+    /**
+     * @return Indexes of the patterns occurring in the text
+     */
+    BitSet allMatches(CharSequence text) {
+        BitSet matches = new BitSet(patterns.length);
+        scan(text, matches);
+        return matches;
+    }
+
+    /**
+     * @param matches If null, stops at the first match
+     */
+    private int scan(CharSequence text, BitSet matches) {
+        int state = ROOT;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = fold(text.charAt(i));
+            int next;
+            while ((next = next(state, c)) == -1 && state != ROOT)
+                state = fail[state];
+            state = (next == -1) ? ROOT : next;
+
+            for (int s = (patternAt[state] != -1) ? state : dictLink[state]; s != -1; s = dictLink[s]) {
+                if (matches == null)
+                    return patternAt[s];
+                matches.set(patternAt[s]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return -1 if there is no edge
+     */
+    private int next(int state, char c) {
+        int lo = edgeStart[state], hi = edgeStart[state + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                lo = mid + 1;
+            } else if (midChar > c) {
+                hi = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private char fold(char c) {
+        if (c == '.' || c == '\\')
+            return '/';
+        return caseSensitive ? c : Character.toLowerCase(c);
+    }
+}
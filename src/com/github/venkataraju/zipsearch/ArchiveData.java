@@ -0,0 +1,100 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access (positional) view of the bytes of an archive. Either a file
+ * or an in memory buffer.
+ */
+abstract class ArchiveData implements Closeable {
+    abstract long size() throws IOException;
+
+    /**
+     * Same as {@link FileChannel#read(ByteBuffer, long)}
+     */
+    abstract int read(ByteBuffer dst, long pos) throws IOException;
+
+    /**
+     * @return Little endian buffer having the bytes [pos, pos + size)
+     */
+    abstract ByteBuffer map(long pos, int size) throws IOException;
+
+    /**
+     * Does nothing by default. i.e. The underlying file/buffer is owned by
+     * someone else
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    static ArchiveData of(FileChannel channel) {
+        return new FileData(channel);
+    }
+
+    /**
+     * @param buf Bytes between position and limit are the archive
+     */
+    static ArchiveData of(ByteBuffer buf) {
+        return new BufferData(buf);
+    }
+
+    static class FileData extends ArchiveData {
+        private final FileChannel channel;
+
+        FileData(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        int read(ByteBuffer dst, long pos) throws IOException {
+            return channel.read(dst, pos);
+        }
+
+        @Override
+        ByteBuffer map(long pos, int size) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    static class BufferData extends ArchiveData {
+        private final ByteBuffer buf;
+
+        BufferData(ByteBuffer buf) {
+            this.buf = buf.slice();
+        }
+
+        @Override
+        long size() {
+            return buf.limit();
+        }
+
+        @Override
+        int read(ByteBuffer dst, long pos) {
+            if (pos >= buf.limit())
+                return -1;
+            ByteBuffer src = buf.duplicate();
+            src.position((int) pos);
+            if (src.remaining() > dst.remaining())
+                src.limit(src.position() + dst.remaining());
+            int n = src.remaining();
+            dst.put(src);
+            return n;
+        }
+
+        @Override
+        ByteBuffer map(long pos, int size) {
+            ByteBuffer slice = buf.duplicate();
+            slice.limit((int) pos + size).position((int) pos);
+            return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
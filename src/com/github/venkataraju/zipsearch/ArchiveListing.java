@@ -0,0 +1,172 @@
+package com.github.venkataraju.zipsearch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact, immutable list of an archive's entries (name + central directory
+ * metadata) along with the listings of its nested archives.
+ * <p>
+ * Backed by a single little endian buffer, so that it can be held in memory
+ * cheaply or be a slice of a memory mapped {@link EntryIndex} file. Layout:
+ *
+ * <pre>
+ * int entryCount, int namesLen, int byteSize (of this listing, nested included)
+ * entryCount records of RECORD_LEN bytes:
+ *     int nameOffset, short nameLen, short method, int crc, int dosTime,
+ *     long size, long compressedSize, int nestedOffset (-1 if none)
+ * namesLen bytes of UTF-8 names
+ * nested listings (nestedOffset is relative to the start of this listing)
+ * </pre>
+ */
+final class ArchiveListing {
+    private static final int HEADER_LEN = 12, RECORD_LEN = 36;
+
+    private final ByteBuffer buf;
+    private final int entryCount, namesPos;
+
+    /**
+     * @param buf Listing starts at its position
+     */
+    ArchiveListing(ByteBuffer buf) {
+        ByteBuffer slice = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+        slice.limit(slice.getInt(8));
+        this.buf = slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.entryCount = this.buf.getInt(0);
+        this.namesPos = HEADER_LEN + entryCount * RECORD_LEN;
+    }
+
+    int size() {
+        return entryCount;
+    }
+
+    void name(int index, EntryName name) {
+        int rec = record(index);
+        name.set(buf, namesPos + buf.getInt(rec), buf.getShort(rec + 4) & 0xFFFF);
+    }
+
+    int method(int index) {
+        return buf.getShort(record(index) + 6) & 0xFFFF;
+    }
+
+    long crc(int index) {
+        return buf.getInt(record(index) + 8) & 0xFFFFFFFFL;
+    }
+
+    long dosTime(int index) {
+        return buf.getInt(record(index) + 12) & 0xFFFFFFFFL;
+    }
+
+    long uncompressedSize(int index) {
+        return buf.getLong(record(index) + 16);
+    }
+
+    long compressedSize(int index) {
+        return buf.getLong(record(index) + 24);
+    }
+
+    /**
+     * @return null if the entry isn't a listed nested archive
+     */
+    ArchiveListing nested(int index) {
+        int nestedOffset = buf.getInt(record(index) + 32);
+        if (nestedOffset == -1)
+            return null;
+        ByteBuffer nestedBuf = buf.duplicate();
+        nestedBuf.position(nestedOffset);
+        return new ArchiveListing(nestedBuf);
+    }
+
+    /**
+     * @return Bytes used by this listing, including its nested listings
+     */
+    int byteSize() {
+        return buf.limit();
+    }
+
+    ByteBuffer buffer() {
+        return buf.duplicate();
+    }
+
+    private int record(int index) {
+        return HEADER_LEN + index * RECORD_LEN;
+    }
+
+    /**
+     * Not thread safe. Nested listings may be set any time before
+     * {@link #build()}
+     */
+    static final class Builder {
+        private int entryCount;
+        private byte[] names = new byte[1024];
+        private int namesLen;
+        private ByteBuffer records = ByteBuffer.allocate(RECORD_LEN * 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final List<ArchiveListing> nested = new ArrayList<>();
+        private boolean complete = true;
+
+        /**
+         * @param entry Current entry of a {@link CentralDirectory}
+         * @return Index of the entry
+         */
+        int add(CentralDirectory.Entry entry) {
+            int nameLen = entry.nameLen;
+            if (names.length < namesLen + nameLen)
+                names = Arrays.copyOf(names, Math.max(names.length * 2, namesLen + nameLen));
+            for (int i = 0; i < nameLen; i++)
+                names[namesLen + i] = entry.nameBuf.get(entry.namePos + i);
+
+            if (records.remaining() < RECORD_LEN) {
+                ByteBuffer bigger = ByteBuffer.allocate(records.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                records.flip();
+                records = bigger.put(records);
+            }
+            records.putInt(namesLen).putShort((short) nameLen).putShort((short) entry.method)
+                    .putInt((int) entry.crc).putInt((int) entry.dosTime)
+                    .putLong(entry.size).putLong(entry.compressedSize).putInt(-1);
+            namesLen += nameLen;
+            nested.add(null);
+            return entryCount++;
+        }
+
+        void setNested(int index, ArchiveListing listing) {
+            nested.set(index, listing);
+        }
+
+        /**
+         * Marks the listing as not having everything. e.g. A nested archive
+         * couldn't be listed
+         */
+        void setIncomplete() {
+            complete = false;
+        }
+
+        boolean isComplete() {
+            return complete;
+        }
+
+        ArchiveListing build() {
+            int len = HEADER_LEN + entryCount * RECORD_LEN + namesLen;
+            for (ArchiveListing listing : nested)
+                if (listing != null)
+                    len += listing.byteSize();
+
+            ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(entryCount).putInt(namesLen).putInt(len);
+            records.flip();
+            buf.put(records);
+            buf.put(names, 0, namesLen);
+            for (int i = 0; i < entryCount; i++) {
+                ArchiveListing listing = nested.get(i);
+                if (listing != null) {
+                    buf.putInt(HEADER_LEN + i * RECORD_LEN + 32, buf.position());
+                    buf.put(listing.buffer());
+                }
+            }
+            buf.flip();
+            return new ArchiveListing(buf);
+        }
+    }
+}
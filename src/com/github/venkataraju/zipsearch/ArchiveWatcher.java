@@ -0,0 +1,242 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link ListingCache} (and the {@link EntryIndex}, if any) up to
+ * date with the watched folders, so that searches find fresh listings without
+ * rescanning. The folders (and their sub folders) are registered with a
+ * {@link WatchService}, and the archives changed are re-listed in the
+ * background.
+ * <p>
+ * Events are debounced: a burst (e.g. a build copying many jars, or a jar
+ * being written) is handled once it is quiet for {@link #QUIET_MS}, or
+ * {@link #MAX_DELAY_MS} after its first event, whichever is earlier. If events
+ * are lost (overflow), the folder is rescanned, which re-lists only the
+ * archives whose size or last modified time differs from their listing.
+ * <p>
+ * Listings are made for all the given archive types, with nested archives
+ * (matching their extensions ignoring the case), so that they can be used by
+ * searches with or without nested archives, case sensitive or not.
+ */
+final class ArchiveWatcher implements Closeable {
+    static final long QUIET_MS = 500, MAX_DELAY_MS = 5000;
+
+    private final Collection<Path> folders;
+    private final Collection<String> archiveExtns;
+    private final NioFilePathFilter filePathFilter;
+    private final ListingCache listingCache;
+    private final EntryIndex index;
+    private final Diagnostics diagnostics;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedFolders = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // Pending changes. Used by the watching thread only
+    private final Set<Path> changedArchives = new LinkedHashSet<>(), foldersToRescan = new LinkedHashSet<>();
+    private long firstEventTime, lastEventTime;
+
+    /**
+     * @param index May be null. Kept up to date, but not saved: that's for the
+     *            caller, which may share it with its searches
+     */
+    ArchiveWatcher(Collection<Path> folders, Collection<String> archiveExtns, ListingCache listingCache,
+                   EntryIndex index, Diagnostics diagnostics) throws IOException {
+        this.folders = folders;
+        this.archiveExtns = archiveExtns;
+        this.filePathFilter = new NioFilePathFilter(false, archiveExtns);
+        this.listingCache = listingCache;
+        this.index = index;
+        this.diagnostics = diagnostics;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "ArchiveWatcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Registers the folders and lists their archives (in the background)
+     */
+    void start() throws IOException {
+        for (Path folder : folders) {
+            register(folder);
+            foldersToRescan.add(folder);
+        }
+        firstEventTime = lastEventTime = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MS);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                WatchKey key;
+                if (changedArchives.isEmpty() && foldersToRescan.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    long now = System.nanoTime();
+                    long waitNanos = Math.min(lastEventTime + TimeUnit.MILLISECONDS.toNanos(QUIET_MS),
+                            firstEventTime + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MS)) - now;
+                    key = (waitNanos > 0) ? watchService.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                }
+
+                if (key != null) {
+                    handleEvents(key);
+                } else {
+                    update();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        } catch (RuntimeException e) {
+            diagnostics.log(Diagnostics.Level.ERROR, "Archive watcher stopped", e);
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path folder = watchedFolders.get(key);
+        if (folder == null) {
+            key.cancel();
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (changedArchives.isEmpty() && foldersToRescan.isEmpty())
+            firstEventTime = now;
+        lastEventTime = now;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                foldersToRescan.add(folder);
+                continue;
+            }
+            Path child = folder.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                // Its contents may be there before it's registered
+                try {
+                    register(child);
+                } catch (IOException e) {
+                    diagnostics.warn("Unable to watch " + child, e);
+                }
+                foldersToRescan.add(child);
+            } else if (filePathFilter.acceptExtnOf(child.getFileName().toString())) {
+                changedArchives.add(child);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                // May have been a folder, having archives
+                foldersToRescan.add(child);
+            }
+        }
+        if (!key.reset()) {
+            watchedFolders.remove(key); // Deleted
+            foldersToRescan.add(folder);
+        }
+    }
+
+    /**
+     * Handles the pending changes
+     */
+    private void update() {
+        List<String> searchPaths = new ArrayList<>();
+        for (Path archive : changedArchives) {
+            if (Files.isRegularFile(archive)) {
+                searchPaths.add(archive.toString());
+            } else {
+                listingCache.remove(archive); // Deleted (or renamed)
+                if (index != null)
+                    index.remove(archive);
+            }
+        }
+        for (Path folder : foldersToRescan) {
+            if (!Files.exists(folder)) {
+                listingCache.removeUnder(folder); // Deleted (or renamed)
+                if (index != null)
+                    index.removeUnder(folder);
+            } else if (Files.isDirectory(folder)) {
+                searchPaths.add(folder.toString());
+                try {
+                    register(folder); // New sub folders, if events were lost
+                } catch (IOException e) {
+                    diagnostics.warn("Unable to watch " + folder, e);
+                }
+            }
+        }
+        changedArchives.clear();
+        foldersToRescan.clear();
+        if (searchPaths.isEmpty())
+            return;
+
+        if (diagnostics.isEnabled(Diagnostics.Level.DEBUG))
+            diagnostics.debug("Re-listing " + searchPaths);
+        // Matching nothing, only the listings are made. Archives whose
+        // listings are up to date aren't read
+        // Case insensitive, so that the listings have the nested archives of
+        // any case, usable by case sensitive searches too
+        ZipSearcher zipSearcher = new ZipSearcher(searchPaths, archiveExtns, true, "", false)
+                .entryMatcher(entryName -> false)
+                .listingCache(listingCache)
+                .diagnostics(diagnostics)
+                .resultListener(result -> {
+                    if (result.resultType == Result.ResultType.ERR)
+                        diagnostics.log(Diagnostics.Level.WARN, result.msg(), null);
+                });
+        if (index != null)
+            zipSearcher.index(index, false);
+        zipSearcher.startSearch();
+    }
+
+    /**
+     * Registers the folder and its sub folders. Already registered ones are
+     * registered again, which is harmless
+     */
+    private void register(Path folder) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (closed)
+                    return FileVisitResult.TERMINATE;
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedFolders.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE; // e.g. Deleted meanwhile
+            }
+        });
+    }
+
+    /**
+     * @return No. of folders being watched
+     */
+    int getNoOfWatchedFolders() {
+        return watchedFolders.size();
+    }
+}
@@ -0,0 +1,419 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entry list of a zip archive from its central directory (Zip64
+ * included), without inflating any entry. The archive may also be a region of
+ * the {@link ArchiveData}, e.g. a {@link #STORED} archive within another
+ * archive.
+ * <p>
+ * Large central directories are memory mapped, a window at a time (so
+ * archives over 2 GB work), and the entry names are decoded straight from the
+ * mapped bytes in to a reused {@link EntryName}.
+ */
+final class CentralDirectory {
+    static final int STORED = 0, DEFLATED = 8;
+
+    private static final int LOC_SIG = 0x04034b50, CEN_SIG = 0x02014b50, END_SIG = 0x06054b50,
+            ZIP64_END_SIG = 0x06064b50, ZIP64_LOC_SIG = 0x07064b50;
+    private static final int LOC_HDR = 30, CEN_HDR = 46, END_HDR = 22, ZIP64_END_HDR = 56, ZIP64_LOC_HDR = 20;
+    private static final int MAX_COMMENT_LEN = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    // Max record length is CEN_HDR + 3 * 0xFFFF, so a window always fits one
+    private static final int MAP_WINDOW_SIZE = 64 << 20;
+    // Mapping costs more than reading for small directories
+    private static final int MIN_MAP_SIZE = 256 << 10;
+
+    private final ArchiveData data;
+    // Offset to which the local header offsets are relative (non zero for
+    // archives with a prefix. e.g. self extracting)
+    private final long locBase;
+    private final long cenEnd;
+    private final long cenSize;
+    private final long noOfEntries;
+
+    private ByteBuffer window;
+    private long windowStart;
+    private long recordPos;
+    private long entriesRead;
+
+    private CentralDirectory(ArchiveData data, long locBase, long cenPos, long cenSize, long noOfEntries)
+            throws IOException {
+        this.data = data;
+        this.locBase = locBase;
+        this.cenEnd = cenPos + cenSize;
+        this.cenSize = cenSize;
+        this.noOfEntries = noOfEntries;
+        this.recordPos = cenPos;
+        if (cenSize < MIN_MAP_SIZE) {
+            window = readFully(data, cenPos, (int) cenSize);
+            windowStart = cenPos;
+        }
+    }
+
+    static CentralDirectory read(ArchiveData data) throws IOException {
+        return read(data, 0, data.size());
+    }
+
+    /**
+     * @param base Offset of the archive in {@code data}
+     * @param size Size of the archive
+     */
+    static CentralDirectory read(ArchiveData data, long base, long size) throws IOException {
+        if (size < END_HDR)
+            throw new ZipException("Not a zip file (too small)");
+
+        int tailLen = (int) Math.min(size, END_HDR + MAX_COMMENT_LEN);
+        ByteBuffer tail = readFully(data, base + size - tailLen, tailLen);
+
+        int endPos = -1;
+        for (int i = tailLen - END_HDR; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG && (i + END_HDR + (tail.getShort(i + 20) & 0xFFFF)) <= tailLen) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos == -1)
+            throw new ZipException("End of central directory not found");
+
+        long endOffset = base + size - tailLen + endPos;
+        long noOfEntries = tail.getShort(endPos + 10) & 0xFFFF;
+        long cenSize = tail.getInt(endPos + 12) & ZIP64_MAGIC;
+        long cenOffset = tail.getInt(endPos + 16) & ZIP64_MAGIC;
+        long cenEnd = endOffset;
+
+        if ((noOfEntries == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC)
+                && (endOffset - base) >= ZIP64_LOC_HDR) {
+            ByteBuffer loc = readFully(data, endOffset - ZIP64_LOC_HDR, ZIP64_LOC_HDR);
+            if (loc.getInt(0) == ZIP64_LOC_SIG) {
+                long zip64EndOffset = base + loc.getLong(8);
+                ByteBuffer end64 = readFully(data, zip64EndOffset, ZIP64_END_HDR);
+                if (end64.getInt(0) != ZIP64_END_SIG)
+                    throw new ZipException("Invalid Zip64 end of central directory");
+                noOfEntries = end64.getLong(32);
+                cenSize = end64.getLong(40);
+                cenOffset = end64.getLong(48);
+                cenEnd = zip64EndOffset;
+            }
+        }
+
+        long cenPos = cenEnd - cenSize;
+        long locBase = cenPos - cenOffset;
+        if (cenPos < base || locBase < base)
+            throw new ZipException("Invalid central directory");
+
+        return new CentralDirectory(data, locBase, cenPos, cenSize, noOfEntries);
+    }
+
+    /**
+     * @return Bytes of the central directory, i.e. read to list the entries
+     */
+    long size() {
+        return cenSize;
+    }
+
+    /**
+     * @return CRC32 (high int) and Adler32 (low int) of the central directory.
+     *         Identical archives have the same hash (the entries' CRCs, sizes
+     *         and offsets are in it). Small central directories are
+     *         already read, so it costs only hashing them
+     */
+    long hash() throws IOException {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        for (long pos = cenEnd - cenSize; pos < cenEnd; ) {
+            int len = (int) Math.min(MAP_WINDOW_SIZE, cenEnd - pos);
+            ByteBuffer buf = window(pos, len).duplicate();
+            buf.limit((int) (pos - windowStart) + len);
+            buf.position((int) (pos - windowStart));
+            crc.update(buf.duplicate());
+            adler.update(buf);
+            pos += len;
+        }
+        return (crc.getValue() << 32) | adler.getValue();
+    }
+
+    /**
+     * @return false if there are no more entries
+     */
+    boolean next(Entry entry) throws IOException {
+        if (entriesRead == noOfEntries || (cenEnd - recordPos) < CEN_HDR)
+            return false;
+
+        ByteBuffer cen = window(recordPos, CEN_HDR);
+        int pos = (int) (recordPos - windowStart);
+        if (cen.getInt(pos) != CEN_SIG)
+            throw new ZipException("Invalid central directory header");
+
+        int nameLen = cen.getShort(pos + 28) & 0xFFFF;
+        int extraLen = cen.getShort(pos + 30) & 0xFFFF;
+        int commentLen = cen.getShort(pos + 32) & 0xFFFF;
+        int recordLen = CEN_HDR + nameLen + extraLen + commentLen;
+        cen = window(recordPos, recordLen);
+        pos = (int) (recordPos - windowStart);
+
+        entry.method = cen.getShort(pos + 10) & 0xFFFF;
+        entry.dosTime = cen.getInt(pos + 12) & ZIP64_MAGIC;
+        entry.crc = cen.getInt(pos + 16) & ZIP64_MAGIC;
+        entry.compressedSize = cen.getInt(pos + 20) & ZIP64_MAGIC;
+        entry.size = cen.getInt(pos + 24) & ZIP64_MAGIC;
+        entry.localHeaderOffset = cen.getInt(pos + 42) & ZIP64_MAGIC;
+        entry.name.set(cen, pos + CEN_HDR, nameLen);
+        entry.nameBuf = cen;
+        entry.namePos = pos + CEN_HDR;
+        entry.nameLen = nameLen;
+
+        if (entry.size == ZIP64_MAGIC || entry.compressedSize == ZIP64_MAGIC || entry.localHeaderOffset == ZIP64_MAGIC)
+            readZip64Extra(cen, entry, pos + CEN_HDR + nameLen, extraLen);
+
+        recordPos += recordLen;
+        entriesRead++;
+        return true;
+    }
+
+    /**
+     * @return Buffer having the bytes [pos, pos + len) of the central directory
+     *         at index (pos - windowStart)
+     */
+    private ByteBuffer window(long pos, int len) throws IOException {
+        if (window != null && pos >= windowStart && (pos + len) <= (windowStart + window.limit()))
+            return window;
+        if ((pos + len) > cenEnd)
+            throw new ZipException("Truncated central directory");
+
+        window = data.map(pos, (int) Math.min(MAP_WINDOW_SIZE, cenEnd - pos));
+        windowStart = pos;
+        return window;
+    }
+
+    /**
+     * Only the fields which are set to 0xFFFFFFFF in the header are present,
+     * and in this order
+     */
+    private static void readZip64Extra(ByteBuffer cen, Entry entry, int extraPos, int extraLen) {
+        for (int i = extraPos, end = extraPos + extraLen; i + 4 <= end; ) {
+            int tag = cen.getShort(i) & 0xFFFF;
+            int dataLen = cen.getShort(i + 2) & 0xFFFF;
+            i += 4;
+            if (tag == 0x0001) {
+                int dataEnd = Math.min(i + dataLen, end);
+                if (entry.size == ZIP64_MAGIC && i + 8 <= dataEnd) {
+                    entry.size = cen.getLong(i);
+                    i += 8;
+                }
+                if (entry.compressedSize == ZIP64_MAGIC && i + 8 <= dataEnd) {
+                    entry.compressedSize = cen.getLong(i);
+                    i += 8;
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC && i + 8 <= dataEnd)
+                    entry.localHeaderOffset = cen.getLong(i);
+                return;
+            }
+            i += dataLen;
+        }
+    }
+
+    /**
+     * Reads the central directory of the {@link #STORED} archive {@code entry}
+     * in place, i.e. without reading the rest of its contents
+     */
+    CentralDirectory nested(Entry entry) throws IOException {
+        if (entry.method != STORED)
+            throw new IllegalArgumentException("Not a stored entry: " + entry.name);
+        return read(data, dataOffset(entry), entry.compressedSize);
+    }
+
+    /**
+     * Opens the (decompressed) contents of the given entry. Only
+     * {@link #STORED} and {@link #DEFLATED} entries are supported.
+     *
+     * @param inflaters If not null, the Inflater and its buffer are borrowed
+     *                  from it (and given back on close)
+     */
+    InputStream openEntry(Entry entry, InflaterPool inflaters) throws IOException {
+        InputStream raw = new RegionInputStream(data, dataOffset(entry), entry.compressedSize);
+        switch (entry.method) {
+            case STORED:
+                return raw;
+            case DEFLATED:
+                if (inflaters != null)
+                    return new EntryInflaterInputStream(raw, inflaters);
+                return new EntryInflaterInputStream(raw, (int) Math.min(Math.max(entry.compressedSize, 64), 8192));
+            default:
+                raw.close();
+                throw new ZipException("Unsupported compression method " + entry.method + ": " + entry.name);
+        }
+    }
+
+    /**
+     * @return Position of the entry's data in the file
+     */
+    private long dataOffset(Entry entry) throws IOException {
+        long locPos = locBase + entry.localHeaderOffset;
+        ByteBuffer loc = readFully(data, locPos, LOC_HDR);
+        if (loc.getInt(0) != LOC_SIG)
+            throw new ZipException("Invalid local header: " + entry.name);
+        return locPos + LOC_HDR + (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+    }
+
+    static ByteBuffer readFully(ArchiveData data, long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (data.read(buf, pos + buf.position()) == -1)
+                throw new EOFException("Unexpected end of file at " + (pos + buf.position()));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Reused for every entry, so callers shouldn't hold on to it (use
+     * {@link #copy()})
+     */
+    static final class Entry {
+        final EntryName name = new EntryName();
+        // Raw (UTF-8) name. Valid till the next entry is read. Not copied
+        ByteBuffer nameBuf;
+        int namePos, nameLen;
+        int method;
+        long dosTime, crc, compressedSize, size, localHeaderOffset;
+
+        boolean isDirectory() {
+            return name.endsWith('/');
+        }
+
+        Entry copy() {
+            Entry copy = new Entry();
+            copy.name.set(name);
+            copy.method = method;
+            copy.dosTime = dosTime;
+            copy.crc = crc;
+            copy.compressedSize = compressedSize;
+            copy.size = size;
+            copy.localHeaderOffset = localHeaderOffset;
+            return copy;
+        }
+    }
+
+    /**
+     * Reads {@code len} bytes of the data starting at {@code pos} using
+     * positional reads, so any channel position is left alone
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final ArchiveData data;
+        private final ByteBuffer buf = ByteBuffer.allocate(8192);
+        private long pos, remaining;
+
+        RegionInputStream(ArchiveData data, long pos, long len) {
+            this.data = data;
+            this.pos = pos;
+            this.remaining = len;
+            buf.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buf.hasRemaining() && !fill())
+                return -1;
+            return buf.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining() && !fill())
+                return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.min(Math.max(n, 0), buf.remaining() + remaining);
+            int fromBuf = (int) Math.min(skipped, buf.remaining());
+            buf.position(buf.position() + fromBuf);
+            pos += skipped - fromBuf;
+            remaining -= skipped - fromBuf;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, buf.remaining() + remaining);
+        }
+
+        private boolean fill() throws IOException {
+            if (remaining == 0)
+                return false;
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), remaining));
+            int n = data.read(buf, pos);
+            if (n <= 0)
+                throw new EOFException("Unexpected end of file at " + pos);
+            pos += n;
+            remaining -= n;
+            buf.flip();
+            return true;
+        }
+    }
+
+    /**
+     * Inflates raw deflate data. As with {@link java.util.zip.ZipFile}, a dummy
+     * byte is supplied at the end, since the nowrap {@link Inflater} may need it
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        // null if not pooled
+        private final InflaterPool inflaters;
+        private boolean eof, closed;
+
+        EntryInflaterInputStream(InputStream in, int bufSize) {
+            super(in, new Inflater(true), bufSize);
+            this.inflaters = null;
+        }
+
+        EntryInflaterInputStream(InputStream in, InflaterPool inflaters) {
+            super(in, inflaters.borrow(), 1);
+            this.inflaters = inflaters;
+            buf = inflaters.borrowBuffer();
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof)
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                if (inflaters != null) {
+                    inflaters.giveBack(inf);
+                    inflaters.giveBackBuffer(buf);
+                } else {
+                    inf.end();
+                }
+                super.close();
+            }
+        }
+    }
+}
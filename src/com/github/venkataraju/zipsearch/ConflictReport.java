@@ -0,0 +1,229 @@
+package com.github.venkataraju.zipsearch;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Groups the entries of all the searched archives by name, to find the names
+ * in more than one archive (duplicate classes/resources, i.e. jar hell). Those
+ * differing in CRC or size are conflicts.
+ * <p>
+ * Kept compact for tens of millions of entries: each distinct name is stored
+ * once in a char arena and interned to an int id (open addressing), and each
+ * entry is a row of primitive arrays (name id, archive id, CRC, size), i.e.
+ * 20 bytes. The entries of an archive are gathered by a {@link Recorder}, and
+ * added in one go, so that the workers don't contend per entry.
+ * <p>
+ * Thread safe.
+ */
+final class ConflictReport {
+    static final class Duplicate {
+        final String name;
+        // Differ in CRC or size
+        final boolean conflict;
+        final List<Occurrence> occurrences;
+
+        Duplicate(String name, boolean conflict, List<Occurrence> occurrences) {
+            this.name = name;
+            this.conflict = conflict;
+            this.occurrences = occurrences;
+        }
+    }
+
+    static final class Occurrence {
+        final String archive;
+        final long crc, size;
+
+        Occurrence(String archive, long crc, long size) {
+            this.archive = archive;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    // Name arena. Name id i is nameChars[nameStarts[i], nameStarts[i + 1])
+    private char[] nameChars = new char[1 << 16];
+    private int[] nameStarts = new int[1 << 12];
+    private int noOfNames;
+    // Name id + 1, 0 if empty. Size is a power of 2
+    private int[] nameTable = new int[1 << 13];
+
+    private final List<String> archives = new ArrayList<>();
+
+    private int[] entryNameIds = new int[1 << 12], entryArchiveIds = new int[1 << 12], entryCrcs = new int[1 << 12];
+    private long[] entrySizes = new long[1 << 12];
+    private int noOfEntries;
+
+    /**
+     * @param archive Path of the (maybe nested) archive
+     */
+    Recorder recorder(Path archive) {
+        return new Recorder(archive.toString());
+    }
+
+    /**
+     * Gathers the entries of an archive. Not thread safe
+     */
+    final class Recorder {
+        private final String archive;
+        private char[] chars = new char[1 << 10];
+        private int[] ends = new int[64], crcs = new int[64];
+        private long[] sizes = new long[64];
+        private int count;
+
+        private Recorder(String archive) {
+            this.archive = archive;
+        }
+
+        void add(CharSequence entryName, long crc, long size) {
+            int start = (count == 0) ? 0 : ends[count - 1], len = entryName.length();
+            if (start + len > chars.length)
+                chars = Arrays.copyOf(chars, Math.max(start + len, chars.length * 2));
+            for (int i = 0; i < len; i++)
+                chars[start + i] = entryName.charAt(i);
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+                crcs = Arrays.copyOf(crcs, count * 2);
+                sizes = Arrays.copyOf(sizes, count * 2);
+            }
+            ends[count] = start + len;
+            crcs[count] = (int) crc;
+            sizes[count++] = size;
+        }
+
+        /**
+         * Adds the gathered entries to the report
+         */
+        void commit() {
+            if (count > 0)
+                ConflictReport.this.add(this);
+        }
+    }
+
+    private synchronized void add(Recorder recorder) {
+        int archiveId = archives.size();
+        archives.add(recorder.archive);
+
+        int newNoOfEntries = noOfEntries + recorder.count;
+        if (newNoOfEntries > entryNameIds.length) {
+            int newLen = Math.max(newNoOfEntries, entryNameIds.length * 2);
+            entryNameIds = Arrays.copyOf(entryNameIds, newLen);
+            entryArchiveIds = Arrays.copyOf(entryArchiveIds, newLen);
+            entryCrcs = Arrays.copyOf(entryCrcs, newLen);
+            entrySizes = Arrays.copyOf(entrySizes, newLen);
+        }
+
+        for (int i = 0, start = 0; i < recorder.count; start = recorder.ends[i++]) {
+            entryNameIds[noOfEntries] = intern(recorder.chars, start, recorder.ends[i]);
+            entryArchiveIds[noOfEntries] = archiveId;
+            entryCrcs[noOfEntries] = recorder.crcs[i];
+            entrySizes[noOfEntries++] = recorder.sizes[i];
+        }
+    }
+
+    private int intern(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + chars[i];
+        hash ^= hash >>> 16;
+
+        int mask = nameTable.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = nameTable[slot] - 1;
+            if (id == -1) {
+                id = addName(chars, start, end);
+                nameTable[slot] = id + 1;
+                if (noOfNames * 2 > nameTable.length)
+                    rehash();
+                return id;
+            }
+            if (nameEquals(id, chars, start, end))
+                return id;
+        }
+    }
+
+    private int addName(char[] chars, int start, int end) {
+        int len = end - start, nameStart = nameStarts[noOfNames];
+        if (nameStart + len > nameChars.length)
+            nameChars = Arrays.copyOf(nameChars, Math.max(nameStart + len, nameChars.length * 2));
+        System.arraycopy(chars, start, nameChars, nameStart, len);
+        if (noOfNames + 2 > nameStarts.length)
+            nameStarts = Arrays.copyOf(nameStarts, nameStarts.length * 2);
+        nameStarts[noOfNames + 1] = nameStart + len;
+        return noOfNames++;
+    }
+
+    private boolean nameEquals(int id, char[] chars, int start, int end) {
+        int nameStart = nameStarts[id];
+        if (nameStarts[id + 1] - nameStart != end - start)
+            return false;
+        for (int i = start; i < end; i++)
+            if (nameChars[nameStart++] != chars[i])
+                return false;
+        return true;
+    }
+
+    private void rehash() {
+        nameTable = new int[nameTable.length * 2];
+        int mask = nameTable.length - 1;
+        for (int id = 0; id < noOfNames; id++) {
+            int hash = 0;
+            for (int i = nameStarts[id]; i < nameStarts[id + 1]; i++)
+                hash = 31 * hash + nameChars[i];
+            hash ^= hash >>> 16;
+            int slot = hash & mask;
+            while (nameTable[slot] != 0)
+                slot = (slot + 1) & mask;
+            nameTable[slot] = id + 1;
+        }
+    }
+
+    synchronized int getNoOfNames() {
+        return noOfNames;
+    }
+
+    synchronized int getNoOfEntries() {
+        return noOfEntries;
+    }
+
+    /**
+     * @return Names in more than one archive, sorted by name. Their
+     *         occurrences are sorted by archive
+     */
+    synchronized List<Duplicate> getDuplicates() {
+        // Name id in the high int, entry index in the low
+        long[] byName = new long[noOfEntries];
+        for (int i = 0; i < noOfEntries; i++)
+            byName[i] = ((long) entryNameIds[i] << 32) | i;
+        Arrays.sort(byName);
+
+        List<Duplicate> duplicates = new ArrayList<>();
+        for (int from = 0, to; from < byName.length; from = to) {
+            int nameId = (int) (byName[from] >>> 32);
+            int firstEntry = (int) byName[from];
+            boolean manyArchives = false, conflict = false;
+            for (to = from + 1; to < byName.length && (int) (byName[to] >>> 32) == nameId; to++) {
+                int entry = (int) byName[to];
+                manyArchives |= entryArchiveIds[entry] != entryArchiveIds[firstEntry];
+                conflict |= entryCrcs[entry] != entryCrcs[firstEntry] || entrySizes[entry] != entrySizes[firstEntry];
+            }
+            if (!manyArchives)
+                continue;
+
+            List<Occurrence> occurrences = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                int entry = (int) byName[i];
+                occurrences.add(new Occurrence(archives.get(entryArchiveIds[entry]), entryCrcs[entry] & 0xFFFFFFFFL,
+                        entrySizes[entry]));
+            }
+            Collections.sort(occurrences, (o1, o2) -> o1.archive.compareTo(o2.archive));
+            duplicates.add(new Duplicate(new String(nameChars, nameStarts[nameId],
+                    nameStarts[nameId + 1] - nameStarts[nameId]), conflict, occurrences));
+        }
+        Collections.sort(duplicates, (d1, d2) -> d1.name.compareTo(d2.name));
+        return duplicates;
+    }
+}
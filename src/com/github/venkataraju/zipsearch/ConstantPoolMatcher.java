@@ -0,0 +1,287 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds references in a class file's constant pool, without loading or fully
+ * parsing the class. Only the constant pool (and this_class) is read from the
+ * stream. The reference is one of
+ * <ul>
+ * <li>A type, e.g. org.foo.Bar - Class constants (including arrays of it) and
+ * member descriptors using it</li>
+ * <li>A member, e.g. org.foo.Bar#baz or #baz for any type - Field, method and
+ * interface method refs</li>
+ * <li>A string, e.g. string:some text - String constants containing it</li>
+ * </ul>
+ * Names are compared exactly (case sensitive), as UTF-8. The class's own
+ * name is not a reference.
+ * <p>
+ * Thread safe. The buffers are in a {@link Reader}, one per thread.
+ */
+final class ConstantPoolMatcher {
+    static final String STRING_PREFIX = "string:";
+
+    interface MatchListener {
+        /**
+         * @param constant Description of the matched constant
+         * @return false to stop searching
+         */
+        boolean onMatch(String constant);
+    }
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+            FIELD_REF = 9, METHOD_REF = 10, INTERFACE_METHOD_REF = 11, NAME_AND_TYPE = 12, METHOD_HANDLE = 15,
+            METHOD_TYPE = 16, DYNAMIC = 17, INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+
+    private enum Kind {
+        TYPE, MEMBER, STRING
+    }
+
+    private final Kind kind;
+    // Internal name of the type (or of the member's owner, empty for any) or
+    // the string
+    private final byte[] name;
+    // "L" + name + ";"
+    private final byte[] descriptor;
+    private final byte[] memberName;
+
+    ConstantPoolMatcher(String reference) {
+        if (reference.startsWith(STRING_PREFIX)) {
+            kind = Kind.STRING;
+            name = utf8(reference.substring(STRING_PREFIX.length()));
+            descriptor = memberName = null;
+        } else {
+            int hashIndex = reference.indexOf('#');
+            String typeName = ((hashIndex == -1) ? reference : reference.substring(0, hashIndex)).replace('.', '/');
+            if (hashIndex == -1) {
+                kind = Kind.TYPE;
+                memberName = null;
+            } else {
+                kind = Kind.MEMBER;
+                memberName = utf8(reference.substring(hashIndex + 1));
+                if (memberName.length == 0)
+                    throw new IllegalArgumentException("No member name: " + reference);
+            }
+            name = utf8(typeName);
+            descriptor = utf8("L" + typeName + ";");
+        }
+        if (kind != Kind.MEMBER && name.length == 0)
+            throw new IllegalArgumentException("Empty reference");
+    }
+
+    /**
+     * Reads the constant pool of a class file. Not thread safe, reused for
+     * all the classes searched by a thread
+     */
+    static final class Reader {
+        private byte[] buf = new byte[8 << 10];
+        private int limit;
+        // Offset of each constant's tag in buf, by its index
+        private int[] offsets = new int[512];
+        private InputStream is;
+
+        /**
+         * @param is Contents of a class file. Not closed, and not read after
+         *           the constant pool
+         * @return false if the listener asked to stop
+         * @throws IOException Also if it isn't a valid class file
+         */
+        boolean search(ConstantPoolMatcher matcher, InputStream is, MatchListener listener) throws IOException {
+            this.is = is;
+            this.limit = 0;
+            try {
+                if (!fill(10) || u4(0) != MAGIC)
+                    return true; // Not a class file. Fine, named *.class
+                int count = u2(8);
+                if (offsets.length < count)
+                    offsets = new int[Math.max(count, offsets.length * 2)];
+
+                int pos = 10;
+                for (int i = 1; i < count; i++) {
+                    ensure(pos + 3);
+                    offsets[i] = pos;
+                    int tag = buf[pos];
+                    switch (tag) {
+                        case UTF8:
+                            pos += 3 + u2(pos + 1);
+                            break;
+                        case CLASS:
+                        case STRING:
+                        case METHOD_TYPE:
+                        case MODULE:
+                        case PACKAGE:
+                            pos += 3;
+                            break;
+                        case METHOD_HANDLE:
+                            pos += 4;
+                            break;
+                        case INTEGER:
+                        case FLOAT:
+                        case FIELD_REF:
+                        case METHOD_REF:
+                        case INTERFACE_METHOD_REF:
+                        case NAME_AND_TYPE:
+                        case DYNAMIC:
+                        case INVOKE_DYNAMIC:
+                            pos += 5;
+                            break;
+                        case LONG:
+                        case DOUBLE:
+                            pos += 9;
+                            i++; // Takes 2 slots
+                            break;
+                        default:
+                            throw new IOException("Invalid class file, constant pool tag: " + tag);
+                    }
+                }
+                ensure(pos + 4); // access_flags, this_class
+                int thisClass = u2(pos + 2);
+
+                return matcher.match(this, count, thisClass, listener);
+            } finally {
+                this.is = null;
+            }
+        }
+
+        private void ensure(int len) throws IOException {
+            if (!fill(len))
+                throw new EOFException("Truncated class file");
+        }
+
+        /**
+         * Reads till at least {@code len} bytes are in the buffer
+         *
+         * @return false if the stream ends before that
+         */
+        private boolean fill(int len) throws IOException {
+            if (len > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(len, buf.length * 2));
+            while (limit < len) {
+                int n = is.read(buf, limit, buf.length - limit);
+                if (n == -1)
+                    return false;
+                limit += n;
+            }
+            return true;
+        }
+
+        private int u2(int pos) {
+            return ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+        }
+
+        private int u4(int pos) {
+            return (u2(pos) << 16) | u2(pos + 2);
+        }
+
+        private int tag(int index, int count) throws IOException {
+            if (index <= 0 || index >= count)
+                throw new IOException("Invalid class file, constant pool index: " + index);
+            return buf[offsets[index]];
+        }
+
+        /**
+         * @return Offset of the UTF8 constant's length
+         */
+        private int utf8At(int index, int count) throws IOException {
+            if (tag(index, count) != UTF8)
+                throw new IOException("Invalid class file, not a UTF8 constant: " + index);
+            return offsets[index] + 1;
+        }
+
+        /**
+         * @return Offset of the referenced UTF8 constant's length, for a
+         *         constant with the UTF8's index right after its tag
+         */
+        private int refUtf8At(int index, int count) throws IOException {
+            return utf8At(u2(offsets[index] + 1), count);
+        }
+
+        private boolean utf8Equals(int utf8, byte[] bytes) {
+            int len = u2(utf8);
+            if (len != bytes.length)
+                return false;
+            for (int i = 0; i < len; i++)
+                if (buf[utf8 + 2 + i] != bytes[i])
+                    return false;
+            return true;
+        }
+
+        private boolean utf8Contains(int utf8, byte[] bytes) {
+            int start = utf8 + 2;
+            for (int i = 0, last = u2(utf8) - bytes.length; i <= last; i++) {
+                int j = 0;
+                while (j < bytes.length && buf[start + i + j] == bytes[j])
+                    j++;
+                if (j == bytes.length)
+                    return true;
+            }
+            return false;
+        }
+
+        private String utf8String(int utf8) {
+            return new String(buf, utf8 + 2, u2(utf8), StandardCharsets.UTF_8);
+        }
+    }
+
+    private boolean match(Reader r, int count, int thisClass, MatchListener listener) throws IOException {
+        for (int i = 1; i < count; i++) {
+            int offset = r.offsets[i];
+            int tag = r.buf[offset];
+            if (tag == LONG || tag == DOUBLE) {
+                i++;
+                continue;
+            }
+
+            String constant = null;
+            switch (kind) {
+                case TYPE:
+                    if (tag == CLASS && i != thisClass) {
+                        int utf8 = r.refUtf8At(i, count);
+                        if (r.utf8Equals(utf8, name) || (r.buf[utf8 + 2] == '[' && r.utf8Contains(utf8, descriptor)))
+                            constant = "Class " + r.utf8String(utf8);
+                    } else if (tag == NAME_AND_TYPE) {
+                        int type = r.utf8At(r.u2(offset + 3), count);
+                        if (r.utf8Contains(type, descriptor))
+                            constant = "NameAndType " + r.utf8String(r.refUtf8At(i, count)) + ":"
+                                    + r.utf8String(type);
+                    }
+                    break;
+                case MEMBER:
+                    if (tag == FIELD_REF || tag == METHOD_REF || tag == INTERFACE_METHOD_REF) {
+                        int classUtf8 = r.refUtf8At(r.u2(offset + 1), count);
+                        int nameAndType = r.u2(offset + 3);
+                        if (r.tag(nameAndType, count) != NAME_AND_TYPE)
+                            throw new IOException("Invalid class file, not a NameAndType: " + nameAndType);
+                        int memberUtf8 = r.refUtf8At(nameAndType, count);
+                        if ((name.length == 0 || r.utf8Equals(classUtf8, name)) && r.utf8Equals(memberUtf8, memberName)) {
+                            String refKind = (tag == FIELD_REF) ? "Fieldref " : (tag == METHOD_REF) ? "Methodref "
+                                    : "InterfaceMethodref ";
+                            constant = refKind + r.utf8String(classUtf8) + "." + r.utf8String(memberUtf8) + ":"
+                                    + r.utf8String(r.utf8At(r.u2(r.offsets[nameAndType] + 3), count));
+                        }
+                    }
+                    break;
+                case STRING:
+                    if (tag == STRING) {
+                        int utf8 = r.refUtf8At(i, count);
+                        if (r.utf8Contains(utf8, name))
+                            constant = "String " + r.utf8String(utf8);
+                    }
+                    break;
+            }
+            if (constant != null && !listener.onMatch(constant))
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] utf8(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
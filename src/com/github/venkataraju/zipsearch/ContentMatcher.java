@@ -0,0 +1,101 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds a literal in a stream of bytes, using Boyer-Moore-Horspool. The bytes
+ * are never decoded in to chars. The case insensitive search folds ASCII
+ * letters only.
+ * <p>
+ * Thread safe. The buffer is supplied by the caller, so that it can be
+ * reused.
+ */
+final class ContentMatcher {
+    interface MatchListener {
+        /**
+         * @param offset Offset of the match in the stream
+         * @return false to stop searching the stream
+         */
+        boolean onMatch(long offset);
+    }
+
+    private final byte[] pattern;
+    private final boolean caseSensitive;
+    private final int[] shifts = new int[256];
+
+    /**
+     * @param text Searched as UTF-8 bytes
+     */
+    ContentMatcher(String text, boolean caseSensitive) {
+        if (text.isEmpty())
+            throw new IllegalArgumentException("Empty text");
+        this.caseSensitive = caseSensitive;
+        this.pattern = text.getBytes(StandardCharsets.UTF_8);
+        if (!caseSensitive) {
+            for (int i = 0; i < pattern.length; i++)
+                pattern[i] = toLowerCase(pattern[i]);
+        }
+
+        int m = pattern.length;
+        Arrays.fill(shifts, m);
+        for (int i = 0; i < m - 1; i++) {
+            shifts[pattern[i] & 0xFF] = m - 1 - i;
+            if (!caseSensitive && pattern[i] >= 'a' && pattern[i] <= 'z')
+                shifts[(pattern[i] - 32) & 0xFF] = m - 1 - i;
+        }
+    }
+
+    /**
+     * @return Min. size of the buffer for {@link #search}
+     */
+    int minBufferSize() {
+        return pattern.length * 2;
+    }
+
+    /**
+     * Reads the stream till the end, unless {@code listener} asks to stop
+     *
+     * @param buf At least {@link #minBufferSize()} bytes
+     * @return false if the listener asked to stop
+     */
+    boolean search(InputStream is, byte[] buf, MatchListener listener) throws IOException {
+        int m = pattern.length;
+        int carried = 0;
+        long bufStart = 0;
+
+        for (int n; (n = is.read(buf, carried, buf.length - carried)) != -1; ) {
+            int len = carried + n;
+            int i = 0;
+            while (i <= len - m) {
+                int j = m - 1;
+                while (j >= 0 && fold(buf[i + j]) == pattern[j])
+                    j--;
+                if (j < 0) {
+                    if (!listener.onMatch(bufStart + i))
+                        return false;
+                    i++;
+                } else {
+                    i += shifts[buf[i + m - 1] & 0xFF];
+                }
+            }
+
+            // Bytes from i onwards may be the start of a match
+            int keepFrom = Math.min(i, len);
+            carried = len - keepFrom;
+            System.arraycopy(buf, keepFrom, buf, 0, carried);
+            bufStart += keepFrom;
+        }
+        return true;
+    }
+
+    private byte fold(byte b) {
+        return caseSensitive ? b : toLowerCase(b);
+    }
+
+    private static byte toLowerCase(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Leveled diagnostic messages (progress, errors with their stack traces),
+ * written by a background thread so that the searching threads never wait for
+ * the console. If the writer falls behind, messages are dropped (and counted)
+ * rather than blocking the search.
+ * <p>
+ * Thread safe.
+ */
+final class Diagnostics {
+    enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static final Diagnostics DEFAULT = new Diagnostics(
+            Level.valueOf(System.getProperty("zipsearch.diagnostics", Level.WARN.name())), System.err);
+
+    private final Level level;
+    private final PrintStream out;
+    private final BlockingQueue<Message> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder dropped = new LongAdder();
+    // Started on the first message, once
+    private final AtomicBoolean writerStarted = new AtomicBoolean();
+
+    /**
+     * @param level Messages below this level are ignored
+     */
+    Diagnostics(Level level, PrintStream out) {
+        this.level = level;
+        this.out = out;
+    }
+
+    /**
+     * Level is taken from the zipsearch.diagnostics system property (WARN by
+     * default). Writes to stderr
+     */
+    static Diagnostics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * To avoid making the message when it would be ignored
+     */
+    boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0 && level != Level.OFF;
+    }
+
+    void debug(String msg) {
+        log(Level.DEBUG, msg, null);
+    }
+
+    void warn(String msg, Throwable t) {
+        log(Level.WARN, msg, t);
+    }
+
+    void log(Level level, String msg, Throwable t) {
+        if (!isEnabled(level))
+            return;
+        if (!writerStarted.get() && writerStarted.compareAndSet(false, true))
+            startWriter();
+        if (!queue.offer(new Message(level, msg, t)))
+            dropped.increment();
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Waits till the messages logged till now are written, e.g. before
+     * exiting
+     */
+    void flush() {
+        if (writerStarted.get()) {
+            // Written by the writer after the messages before it, including
+            // any it's writing
+            Message marker = new Message(null, null, null);
+            try {
+                queue.put(marker);
+                marker.written.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long noOfDropped = dropped.sumThenReset();
+        synchronized (out) {
+            if (noOfDropped > 0)
+                out.println("WARN  " + noOfDropped + " diagnostic messages dropped");
+            out.flush();
+        }
+    }
+
+    private void startWriter() {
+        Thread writer = new Thread(() -> {
+            try {
+                while (true) {
+                    Message message = queue.take();
+                    if (message.written != null) {
+                        message.written.countDown();
+                    } else {
+                        write(message);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Exiting
+            }
+        }, "ZipSearcher-diagnostics");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    private void write(Message message) {
+        synchronized (out) {
+            out.printf("%-5s %s%n", message.level, message.msg);
+            if (message.t != null)
+                message.t.printStackTrace(out);
+        }
+    }
+
+    private static final class Message {
+        final Level level;
+        final String msg;
+        final Throwable t;
+        // Only for a flush's marker
+        final CountDownLatch written;
+
+        Message(Level level, String msg, Throwable t) {
+            this.level = level;
+            this.msg = msg;
+            this.t = t;
+            this.written = (level == null) ? new CountDownLatch(1) : null;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Finds the archives in the search paths, listing the directories in parallel
+ * (on its own pool, as it mostly waits for the file system). The attributes of
+ * each directory entry are read just once, and handed over with the archive,
+ * so that the search doesn't stat it again. Symbolic links are followed;
+ * loops are detected by comparing the directory's file key with its
+ * ancestors'.
+ * <p>
+ * The archives are put in to a bounded queue, so the walk waits when the
+ * search is behind.
+ */
+final class DirectoryWalker {
+    static final class Archive {
+        final Path path;
+        final BasicFileAttributes attrs;
+
+        Archive(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+
+    // Put after all the archives
+    private static final Archive END = new Archive(null, null);
+
+    private final Collection<Path> searchPaths;
+    private final NioFilePathFilter filePathFilter;
+    private final BiConsumer<String, IOException> errorListener;
+    private final ForkJoinPool pool;
+    private final BlockingQueue<Archive> queue;
+
+    private volatile boolean cancelled;
+
+    /**
+     * @param errorListener Called (from the walking threads) with the
+     *                      message and the exception (if any), for the paths
+     *                      which can't be searched
+     */
+    DirectoryWalker(Collection<Path> searchPaths, NioFilePathFilter filePathFilter, int parallelism,
+                    int queueCapacity, BiConsumer<String, IOException> errorListener) {
+        this.searchPaths = searchPaths;
+        this.filePathFilter = filePathFilter;
+        this.errorListener = errorListener;
+        this.pool = new ForkJoinPool(parallelism);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    void start() {
+        pool.execute(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                try {
+                    List<WalkTask> tasks = new ArrayList<>(searchPaths.size());
+                    for (Path searchPath : searchPaths) {
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(searchPath, BasicFileAttributes.class);
+                        } catch (NoSuchFileException e) {
+                            errorListener.accept("Not found: " + searchPath, null);
+                            continue;
+                        } catch (IOException e) {
+                            errorListener.accept("Unable to read: " + searchPath, e);
+                            continue;
+                        }
+                        if (attrs.isDirectory()) {
+                            tasks.add(new WalkTask(searchPath, attrs, null));
+                        } else if (!filePathFilter.acceptExtnOf(searchPath.toString())) {
+                            errorListener.accept("Invalid input: " + searchPath, null);
+                        } else {
+                            put(new Archive(searchPath, attrs));
+                        }
+                    }
+                    invokeAll(tasks);
+                } finally {
+                    pool.shutdown();
+                    put(END);
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocks till an archive is found or the walk is complete
+     *
+     * @return null if the walk is complete (or cancelled)
+     */
+    Archive take() throws InterruptedException {
+        Archive archive = queue.take();
+        return (archive == END) ? null : archive;
+    }
+
+    /**
+     * The walk stops soon after, and then {@link #take()} returns null
+     */
+    void cancel() {
+        cancelled = true;
+        queue.clear(); // So that the walking threads don't wait to put
+    }
+
+    /**
+     * Waits while the queue is full, unless cancelled. {@link #END} is put
+     * even if cancelled
+     */
+    private void put(Archive archive) {
+        try {
+            while (!queue.offer(archive, 100, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    if (archive != END)
+                        return;
+                    queue.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Directories from the one being walked to the search path, to detect
+     * loops
+     */
+    private static final class Ancestor {
+        final Object fileKey;
+        final Ancestor parent;
+
+        Ancestor(Object fileKey, Ancestor parent) {
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class WalkTask extends RecursiveAction {
+        private final Path dir;
+        private final BasicFileAttributes attrs;
+        private final Ancestor parent;
+
+        WalkTask(Path dir, BasicFileAttributes attrs, Ancestor parent) {
+            this.dir = dir;
+            this.attrs = attrs;
+            this.parent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled)
+                return;
+
+            Object fileKey = fileKey(dir, attrs);
+            for (Ancestor ancestor = parent; ancestor != null && fileKey != null; ancestor = ancestor.parent) {
+                if (fileKey.equals(ancestor.fileKey)) {
+                    errorListener.accept("Symbolic link loop: " + dir, null);
+                    return;
+                }
+            }
+            Ancestor self = new Ancestor(fileKey, parent);
+
+            List<WalkTask> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path child : ds) {
+                    if (cancelled)
+                        return;
+                    BasicFileAttributes childAttrs;
+                    try {
+                        childAttrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue; // e.g. Broken symbolic link
+                    }
+                    if (childAttrs.isDirectory()) {
+                        WalkTask task = new WalkTask(child, childAttrs, self);
+                        task.fork();
+                        tasks.add(task);
+                    } else if (childAttrs.isRegularFile() && filePathFilter.acceptExtnOf(child.getFileName().toString())) {
+                        put(new Archive(child, childAttrs));
+                    }
+                }
+            } catch (IOException e) {
+                errorListener.accept("Unable to read folder: " + dir, e);
+            } finally {
+                for (int i = tasks.size() - 1; i >= 0; i--)
+                    tasks.get(i).join();
+            }
+        }
+    }
+
+    /**
+     * @return Real path if the file system has no file keys (e.g. Windows)
+     */
+    private static Object fileKey(Path dir, BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        if (fileKey != null)
+            return fileKey;
+        try {
+            return dir.toRealPath();
+        } catch (IOException e) {
+            return dir.toAbsolutePath().normalize();
+        }
+    }
+}
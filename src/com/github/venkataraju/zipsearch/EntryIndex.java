@@ -0,0 +1,254 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of on disk archives' {@link ArchiveListing}s, keyed by the
+ * archive's path, size and last modified time (and the nested archive
+ * extensions the listing was made with). Lets repeated searches skip the
+ * archives that haven't changed.
+ * <p>
+ * The index file is read in to the heap, and the listings are used in place.
+ * It's not kept memory mapped, so that it can be replaced on saving (a mapped
+ * file can't be, on Windows). Layout (little endian):
+ *
+ * <pre>
+ * int MAGIC, int VERSION, int archiveCount
+ * archiveCount times:
+ *     int pathLen, path (UTF-8), long size, long lastModified,
+ *     int nestedExtnsLen, nestedExtns (UTF-8), ArchiveListing
+ * </pre>
+ * <p>
+ * Thread safe.
+ */
+final class EntryIndex {
+    private static final int MAGIC = 0x5A534958 /* ZSIX */, VERSION = 1;
+
+    private final Path indexFile;
+    private final Map<String, IndexedArchive> archives = new ConcurrentHashMap<>();
+
+    private volatile boolean modified;
+
+    private EntryIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @param diagnostics If the file isn't readable, it's reported to it
+     * @return Empty index if the file doesn't exist or isn't readable
+     */
+    static EntryIndex load(Path indexFile, Diagnostics diagnostics) {
+        EntryIndex entryIndex = new EntryIndex(indexFile);
+        try {
+            if (Files.size(indexFile) > Integer.MAX_VALUE - 8)
+                throw new IOException("Index is too big: " + indexFile);
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(indexFile)).order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                throw new IOException("Not a (supported) index file: " + indexFile);
+
+            for (int i = 0, archiveCount = buf.getInt(); i < archiveCount; i++) {
+                String path = getString(buf);
+                long size = buf.getLong(), lastModified = buf.getLong();
+                String nestedExtns = getString(buf);
+                ArchiveListing listing = new ArchiveListing(buf);
+                buf.position(buf.position() + listing.byteSize());
+                entryIndex.archives.put(path, new IndexedArchive(size, lastModified, nestedExtns, listing));
+            }
+        } catch (NoSuchFileException e) {
+            // New index
+        } catch (IOException | RuntimeException e) {
+            // Stale or corrupt. Rebuilt as archives are searched
+            diagnostics.log(Diagnostics.Level.WARN, "Unable to read the index, starting over: " + e,
+                    diagnostics.isEnabled(Diagnostics.Level.DEBUG) ? e : null);
+            entryIndex.archives.clear();
+        }
+        return entryIndex;
+    }
+
+    /**
+     * @param nestedExtns {@link #nestedExtnsKey} of the search. Listings made
+     *                    without nested archives are only used if this is empty
+     * @see #isUsable(String, String)
+     * @return null if the archive isn't indexed or has changed
+     */
+    ArchiveListing get(Path archive, BasicFileAttributes attrs, String nestedExtns) {
+        IndexedArchive indexed = archives.get(key(archive));
+        if (indexed == null || indexed.size != attrs.size()
+                || indexed.lastModified != attrs.lastModifiedTime().toMillis()
+                || !isUsable(indexed.nestedExtns, nestedExtns))
+            return null;
+        return indexed.listing;
+    }
+
+    void put(Path archive, BasicFileAttributes attrs, String nestedExtns, ArchiveListing listing) {
+        archives.put(key(archive),
+                new IndexedArchive(attrs.size(), attrs.lastModifiedTime().toMillis(), nestedExtns, listing));
+        modified = true;
+    }
+
+    /**
+     * e.g. The archive is deleted
+     */
+    void remove(Path archive) {
+        if (archives.remove(key(archive)) != null)
+            modified = true;
+    }
+
+    /**
+     * Removes all the archives under the folder (at any depth), e.g. the
+     * folder is deleted
+     */
+    void removeUnder(Path folder) {
+        Path prefix = folder.toAbsolutePath().normalize();
+        if (archives.keySet().removeIf(path -> prefix.getFileSystem().getPath(path).startsWith(prefix)))
+            modified = true;
+    }
+
+    /**
+     * Removes the archives which are under the roots of a complete walk, but
+     * weren't found by it, i.e. don't exist anymore. So that a save needn't
+     * check if each archive exists
+     *
+     * @param roots  Walked completely
+     * @param found  On disk archives found by the walk
+     * @param filter Of the walk. Archives it doesn't accept aren't removed
+     */
+    void removeNotFound(Collection<Path> roots, Collection<Path> found, NioFilePathFilter filter) {
+        List<Path> prefixes = new ArrayList<>(roots.size());
+        for (Path root : roots)
+            prefixes.add(root.toAbsolutePath().normalize());
+        Set<String> foundKeys = new HashSet<>();
+        for (Path archive : found)
+            foundKeys.add(key(archive));
+        boolean removed = archives.keySet().removeIf(path -> {
+            if (foundKeys.contains(path) || !filter.acceptExtnOf(path))
+                return false;
+            Path archive = indexFile.getFileSystem().getPath(path);
+            for (Path prefix : prefixes) {
+                if (archive.startsWith(prefix))
+                    return true;
+            }
+            return false;
+        });
+        if (removed)
+            modified = true;
+    }
+
+    /**
+     * Writes the index, if changed. Written to a temp file first, so that a
+     * reader (or a failed save) never sees a partial index
+     */
+    synchronized void save() throws IOException {
+        if (!modified)
+            return;
+        modified = false; // Before writing, so that archives indexed meanwhile are saved next time
+
+        // Counted as written, as archives may be indexed meanwhile
+        List<Map.Entry<String, IndexedArchive>> entries = new ArrayList<>(archives.entrySet());
+
+        Path indexFolder = indexFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(indexFolder, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16)) {
+                ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+                os.write(header.array());
+
+                ByteBuffer buf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                for (Map.Entry<String, IndexedArchive> e : entries) {
+                    IndexedArchive indexed = e.getValue();
+                    putString(os, e.getKey());
+                    buf.clear();
+                    os.write(buf.putLong(indexed.size).array());
+                    buf.clear();
+                    os.write(buf.putLong(indexed.lastModified).array());
+                    putString(os, indexed.nestedExtns);
+                    ByteBuffer listing = indexed.listing.buffer();
+                    Channels.newChannel(os).write(listing);
+                }
+            }
+
+            try {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            modified = true;
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return Key for the nested archive extensions of a search. Empty if not
+     *         searching within archives
+     */
+    static String nestedExtnsKey(boolean searchWithInArchives, NioFilePathFilter filter) {
+        return searchWithInArchives ? filter.getExtnsKey() : "";
+    }
+
+    /**
+     * @param listingNestedExtns Key of the search which made the listing
+     * @param nestedExtns        Key of the search which wants to use it
+     * @return true if the listing has all the nested archives the search
+     *         looks in to. A search skips the (extra) nested listings it
+     *         doesn't look in to, e.g. those of .JAR ones, when case sensitive
+     */
+    static boolean isUsable(String listingNestedExtns, String nestedExtns) {
+        return nestedExtns.isEmpty() || listingNestedExtns.equals(nestedExtns)
+                || NioFilePathFilter.coversExtnsKey(listingNestedExtns, nestedExtns);
+    }
+
+    private static String key(Path archive) {
+        return archive.toAbsolutePath().normalize().toString();
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(OutputStream os, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        os.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length).array());
+        os.write(bytes);
+    }
+
+    private static final class IndexedArchive {
+        final long size, lastModified;
+        final String nestedExtns;
+        final ArchiveListing listing;
+
+        IndexedArchive(long size, long lastModified, String nestedExtns, ArchiveListing listing) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.nestedExtns = nestedExtns;
+            this.listing = listing;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.venkataraju.zipsearch;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches entry names. Compiled once per search and used by all the worker
+ * threads, so implementations should be thread safe and shouldn't create
+ * objects in {@link #matches(CharSequence)}.
+ */
+interface EntryMatcher {
+    String GLOB_PREFIX = "glob:", REGEX_PREFIX = "regex:";
+
+    boolean matches(CharSequence entryName);
+
+    /**
+     * Called only for a matching name
+     *
+     * @return The patterns that matched, if the matcher has many. Else null
+     */
+    default String[] matchedPatterns(CharSequence entryName) {
+        return null;
+    }
+
+    /**
+     * As with {@link java.nio.file.FileSystem#getPathMatcher(String)},
+     * "glob:" and "regex:" prefixes select the syntax. Otherwise it is a
+     * {@link SubstringMatcher}
+     */
+    static EntryMatcher parse(String query, boolean caseSensitive) {
+        if (query.startsWith(GLOB_PREFIX))
+            return new RegexMatcher(globToRegex(query.substring(GLOB_PREFIX.length())), caseSensitive);
+        if (query.startsWith(REGEX_PREFIX))
+            return new RegexMatcher(query.substring(REGEX_PREFIX.length()), caseSensitive);
+        return new SubstringMatcher(query, caseSensitive);
+    }
+
+    /**
+     * {@code *} and {@code ?} don't cross /, {@code **} does. {@code **}/
+     * matches zero or more directories. e.g. {@code **}/impl/*Service.class.
+     * {@code [abc]}, {@code [a-z]} and {@code [!a-z]} match a char (other than
+     * /) in, or not in, the class. {@code {a,b}} matches either of the
+     * patterns, which can't have groups
+     *
+     * @throws PatternSyntaxException If a class or group isn't closed, or
+     *                                groups are nested
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() * 2);
+        boolean inGroup = false;
+        for (int i = 0, len = glob.length(); i < len; i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < len && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < len && glob.charAt(i + 1) == '/') {
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '\\':
+                    regex.append('/');
+                    break;
+                case '[': {
+                    // Intersected with [^/], as / is never matched
+                    regex.append("[[^/]&&[");
+                    int start = i++;
+                    if (i < len && glob.charAt(i) == '!') {
+                        regex.append('^');
+                        i++;
+                    }
+                    for (; i < len && (c = glob.charAt(i)) != ']'; i++) {
+                        if (c == '/')
+                            throw new PatternSyntaxException("/ can't be in a class", glob, i);
+                        if ("\\[&^".indexOf(c) != -1)
+                            regex.append('\\');
+                        regex.append(c);
+                    }
+                    if (i == len)
+                        throw new PatternSyntaxException("Missing ']'", glob, start);
+                    regex.append("]]");
+                    break;
+                }
+                case '{':
+                    if (inGroup)
+                        throw new PatternSyntaxException("Groups can't be nested", glob, i);
+                    inGroup = true;
+                    regex.append("(?:(?:");
+                    break;
+                case ',':
+                    regex.append(inGroup ? ")|(?:" : ",");
+                    break;
+                case '}':
+                    if (inGroup) {
+                        inGroup = false;
+                        regex.append("))");
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                default:
+                    if ("]().+^$|".indexOf(c) != -1)
+                        regex.append('\\');
+                    regex.append(c);
+            }
+        }
+        if (inGroup)
+            throw new PatternSyntaxException("Missing '}'", glob, glob.length());
+        return regex.toString();
+    }
+
+    /**
+     * The original search. The last dot (.) separated part of the query may
+     * be a file extension, other dots and \ being path separators, e.g.
+     * org.xyz.Abc.class. Matches anywhere in the name. Compares the chars in
+     * place, without lower casing the name
+     */
+    final class SubstringMatcher implements EntryMatcher {
+        private final String filePathWithoutExtnToSearch;
+        private final int filePathWithoutExtnLen, filePathWithoutExtnLenPlusOne;
+        private final boolean caseSensitive;
+
+        // May not be the file extension, just because it is after last dot(.).
+        // User may be searching for package org.xyz. null if there is no dot
+        private final String mayBeFileExtn;
+
+        SubstringMatcher(String filePathToSearch, boolean caseSensitive) {
+            String[] pathAndExtn = getForwardSlashSeparatedPathAndExtn(filePathToSearch);
+
+            String tmpFilePathWithoutExtnToSearch = pathAndExtn[0];
+            String mayBeFileExtn = pathAndExtn[1];
+
+            if (caseSensitive) {
+                this.filePathWithoutExtnToSearch = tmpFilePathWithoutExtnToSearch;
+                this.mayBeFileExtn = mayBeFileExtn;
+            } else {
+                this.filePathWithoutExtnToSearch = tmpFilePathWithoutExtnToSearch.toLowerCase();
+                this.mayBeFileExtn = (mayBeFileExtn == null) ? null : mayBeFileExtn.toLowerCase();
+            }
+
+            this.filePathWithoutExtnLen = filePathWithoutExtnToSearch.length();
+            this.filePathWithoutExtnLenPlusOne = filePathWithoutExtnLen + 1;
+            this.caseSensitive = caseSensitive;
+        }
+
+        @Override
+        public boolean matches(CharSequence entryName) {
+            boolean lowerCase = !caseSensitive;
+            int filePathIndex = Util.indexOf(entryName, filePathWithoutExtnToSearch, lowerCase);
+            char c;
+            // Note: Not checking if it is exactly the extension.
+            // Fine if .(dot) or /(slash) are present.
+            return (filePathIndex != -1)
+                    && (mayBeFileExtn == null || (Util.regionMatches(entryName, filePathIndex + filePathWithoutExtnLenPlusOne, mayBeFileExtn, lowerCase) &&
+                    (((c = entryName.charAt(filePathIndex + filePathWithoutExtnLen)) == '.') || c == '/')));
+        }
+
+        private static String[] getForwardSlashSeparatedPathAndExtn(String fileName) {
+            int dotIndex = fileName.lastIndexOf('.');
+            String extn;
+            if ((dotIndex == -1)
+                    || ((extn = fileName.substring(dotIndex + 1)).indexOf('/') != -1)
+                    || (extn.indexOf('\\') != -1)) { // No file extension available
+                return new String[]{fileName.replaceAll("[/\\\\]+", "/"), null};
+            } else {
+                return new String[]{fileName.substring(0, dotIndex).replaceAll("[./\\\\]+", "/"),
+                        fileName.substring(dotIndex + 1)};
+            }
+        }
+    }
+
+    /**
+     * The whole entry name should match. A {@link Matcher} per thread is
+     * reset for each name
+     */
+    final class RegexMatcher implements EntryMatcher {
+        private final Pattern pattern;
+        private final ThreadLocal<Matcher> matchers;
+
+        RegexMatcher(String regex, boolean caseSensitive) {
+            this.pattern = Pattern.compile(regex, caseSensitive ? 0 : (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+            this.matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+        }
+
+        @Override
+        public boolean matches(CharSequence entryName) {
+            return matchers.get().reset(entryName).matches();
+        }
+    }
+}
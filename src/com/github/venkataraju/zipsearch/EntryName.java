@@ -0,0 +1,83 @@
+package com.github.venkataraju.zipsearch;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable, mutable view of an UTF-8 encoded entry name. Lets the names be
+ * matched without creating a {@link String} per entry. Call
+ * {@link #toString()} only when the name is really needed (e.g. on a match).
+ */
+final class EntryName implements CharSequence {
+    private char[] chars = new char[256];
+    private int length;
+
+    private CharsetDecoder decoder;
+
+    void set(ByteBuffer buf, int pos, int len) {
+        if (chars.length < len)
+            chars = new char[Math.max(len, chars.length * 2)];
+
+        // Fast path: Most of the names are ASCII
+        int i = 0;
+        for (byte b; i < len && (b = buf.get(pos + i)) >= 0; i++)
+            chars[i] = (char) b;
+
+        if (i == len) {
+            length = len;
+        } else {
+            decodeUtf8(buf, pos + i, len - i, i);
+        }
+    }
+
+    void set(EntryName other) {
+        if (chars.length < other.length)
+            chars = new char[other.length];
+        System.arraycopy(other.chars, 0, chars, 0, other.length);
+        length = other.length;
+    }
+
+    private void decodeUtf8(ByteBuffer buf, int pos, int len, int charsDone) {
+        if (decoder == null) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        ByteBuffer in = buf.duplicate();
+        in.limit(pos + len).position(pos);
+        CharBuffer out = CharBuffer.wrap(chars, charsDone, chars.length - charsDone);
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        length = out.position();
+    }
+
+    boolean endsWith(char c) {
+        return length > 0 && chars[length - 1] == c;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length)
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+
+/**
+ * Per thread pools of (nowrap) {@link Inflater}s and their input buffers, so
+ * that a search doesn't make (and leave to be finalized) an Inflater, with
+ * its native memory, for every deflated entry and nested archive. Borrowed
+ * ones are given back on every exit path (i.e. close), reset. A thread keeps
+ * up to {@link #MAX_POOLED_PER_THREAD} (enough for the nesting levels it's
+ * in); more are ended.
+ * <p>
+ * Thread safe. Each thread uses its own pool, so they aren't locked.
+ */
+final class InflaterPool implements Closeable {
+    static final int BUF_SIZE = 8192;
+    private static final int MAX_POOLED_PER_THREAD = 8;
+
+    private final ThreadLocal<ThreadPool> threadPools = ThreadLocal.withInitial(this::newThreadPool);
+    // To end the pooled Inflaters of all the threads on close
+    private final Queue<ThreadPool> allThreadPools = new ConcurrentLinkedQueue<>();
+    private final LongAdder noOfInflatersCreated = new LongAdder();
+    private volatile boolean closed;
+
+    private ThreadPool newThreadPool() {
+        ThreadPool threadPool = new ThreadPool();
+        allThreadPools.add(threadPool);
+        return threadPool;
+    }
+
+    Inflater borrow() {
+        Inflater inflater = threadPools.get().inflaters.poll();
+        if (inflater == null) {
+            noOfInflatersCreated.increment();
+            inflater = new Inflater(true);
+        }
+        return inflater;
+    }
+
+    /**
+     * @param inflater Not to be used after this, even if it failed
+     */
+    void giveBack(Inflater inflater) {
+        Deque<Inflater> inflaters = threadPools.get().inflaters;
+        if (closed || inflaters.size() == MAX_POOLED_PER_THREAD) {
+            inflater.end();
+        } else {
+            inflater.reset();
+            inflaters.push(inflater);
+        }
+    }
+
+    /**
+     * @return Of {@link #BUF_SIZE}
+     */
+    byte[] borrowBuffer() {
+        byte[] buf = threadPools.get().bufs.poll();
+        return (buf != null) ? buf : new byte[BUF_SIZE];
+    }
+
+    void giveBackBuffer(byte[] buf) {
+        Deque<byte[]> bufs = threadPools.get().bufs;
+        if (!closed && bufs.size() < MAX_POOLED_PER_THREAD)
+            bufs.push(buf);
+    }
+
+    /**
+     * @return No. of Inflaters made, i.e. not reused
+     */
+    long getNoOfInflatersCreated() {
+        return noOfInflatersCreated.sum();
+    }
+
+    /**
+     * Ends the pooled Inflaters. To be called once the borrowers are done.
+     * Inflaters given back after this are ended
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (ThreadPool threadPool; (threadPool = allThreadPools.poll()) != null; ) {
+            for (Inflater inflater; (inflater = threadPool.inflaters.poll()) != null; )
+                inflater.end();
+            threadPool.bufs.clear();
+        }
+    }
+
+    private static final class ThreadPool {
+        final Deque<Inflater> inflaters = new ArrayDeque<>();
+        final Deque<byte[]> bufs = new ArrayDeque<>();
+    }
+}
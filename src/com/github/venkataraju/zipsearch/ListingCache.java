@@ -0,0 +1,113 @@
+package com.github.venkataraju.zipsearch;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In memory, least recently used cache of on disk archives'
+ * {@link ArchiveListing}s. Meant to be shared by the searches of a session, so
+ * that searching the same archives again (e.g. only the search text changed)
+ * doesn't read them.
+ * <p>
+ * Keyed the same way as {@link EntryIndex}, i.e. path, size, last modified
+ * time and the nested archive extensions. Nested archives' listings are part
+ * of their outer archive's listing. Evicts the least recently used listings
+ * when their total size goes above the memory budget.
+ * <p>
+ * Thread safe.
+ */
+final class ListingCache {
+    private final long memoryBudget;
+
+    // Access ordered
+    private final LinkedHashMap<String, CachedListing> listings = new LinkedHashMap<>(256, 0.75F, true);
+    private long cachedBytes;
+
+    /**
+     * @param memoryBudget Max total bytes of the cached listings
+     */
+    ListingCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @see EntryIndex#get(Path, BasicFileAttributes, String)
+     */
+    synchronized ArchiveListing get(Path archive, BasicFileAttributes attrs, String nestedExtns) {
+        CachedListing cached = listings.get(key(archive));
+        if (cached == null || cached.size != attrs.size()
+                || cached.lastModified != attrs.lastModifiedTime().toMillis()
+                || !EntryIndex.isUsable(cached.nestedExtns, nestedExtns))
+            return null;
+        return cached.listing;
+    }
+
+    synchronized void put(Path archive, BasicFileAttributes attrs, String nestedExtns, ArchiveListing listing) {
+        if (listing.byteSize() > memoryBudget)
+            return;
+
+        CachedListing old = listings.put(key(archive),
+                new CachedListing(attrs.size(), attrs.lastModifiedTime().toMillis(), nestedExtns, listing));
+        if (old != null)
+            cachedBytes -= old.listing.byteSize();
+        cachedBytes += listing.byteSize();
+
+        for (Iterator<CachedListing> it = listings.values().iterator(); cachedBytes > memoryBudget; ) {
+            cachedBytes -= it.next().listing.byteSize();
+            it.remove();
+        }
+    }
+
+    /**
+     * e.g. The archive is deleted
+     */
+    synchronized void remove(Path archive) {
+        CachedListing old = listings.remove(key(archive));
+        if (old != null)
+            cachedBytes -= old.listing.byteSize();
+    }
+
+    /**
+     * Removes the listings of all the archives under the folder (at any
+     * depth), e.g. the folder is deleted
+     */
+    synchronized void removeUnder(Path folder) {
+        Path prefix = folder.toAbsolutePath().normalize();
+        for (Iterator<Map.Entry<String, CachedListing>> it = listings.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, CachedListing> e = it.next();
+            if (prefix.getFileSystem().getPath(e.getKey()).startsWith(prefix)) {
+                cachedBytes -= e.getValue().listing.byteSize();
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        listings.clear();
+        cachedBytes = 0;
+    }
+
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    private static String key(Path archive) {
+        return archive.toAbsolutePath().normalize().toString();
+    }
+
+    private static final class CachedListing {
+        final long size, lastModified;
+        final String nestedExtns;
+        final ArchiveListing listing;
+
+        CachedListing(long size, long lastModified, String nestedExtns, ArchiveListing listing) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.nestedExtns = nestedExtns;
+            this.listing = listing;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
@@ -21,6 +22,7 @@ import java.util.Formatter;
 import java.util.List;
 import java.util.concurrent.FutureTask;
 import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -28,16 +30,17 @@ import javax.swing.AbstractAction;
 import javax.swing.AbstractButton;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
-import javax.swing.JTextPane;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
@@ -46,11 +49,6 @@ import javax.swing.border.Border;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileFilter;
-import javax.swing.text.AttributeSet;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyledDocument;
 
 import com.github.venkataraju.zipsearch.MainUI.GbLayoutHelper.Fill;
 
@@ -62,9 +60,6 @@ public final class MainUI extends JFrame {
     private static final String FILE_PATHS_TOOLTIP_TEXT = "Enter comma(,) or path separator(" + File.pathSeparator
             + ") separated directory/zip compatible file paths";
 
-    private final SimpleAttributeSet infTextStyle = new SimpleAttributeSet(),
-            errorTextStyle = new SimpleAttributeSet(),
-            matchTextStyle = new SimpleAttributeSet();
     private final Border errorBorder = BorderFactory.createLineBorder(new Color(220, 0, 0));
 
     private final JTextField searchPathsTf = new JTextField();
@@ -75,6 +70,7 @@ public final class MainUI extends JFrame {
             caseInsensitiveSearchCb = new JCheckBox("Case sensitive search", true);
 
     private final JTextField searchFileTf = new JTextField();
+    private final JTextField containingTextTf = new JTextField();
     private final JButton searchBtn = new JButton("Search"),
             stopBtn = new JButton("Stop");
 
@@ -84,11 +80,15 @@ public final class MainUI extends JFrame {
     ;
     private final Border defaultTextFieldBorder;
 
-    private final StyledDocument results;
+    private final ResultListModel results = new ResultListModel();
+    private final JList<String> resultsList = new JList<>(results);
 
     private final Color msgLblDefaultForeground;
 
     private ZipSearcher zipSearcher;
+    // Shared by all the searches, so that searching again doesn't read the
+    // archives which haven't changed
+    private final ListingCache listingCache = new ListingCache(Runtime.getRuntime().maxMemory() / 8);
 
     private ActionListener timerListener;
     private Timer timer;
@@ -111,10 +111,6 @@ public final class MainUI extends JFrame {
         // g2d.drawString("AS", 5, 80);
         // setIconImage(bufferedImage);
 
-        StyleConstants.setForeground(infTextStyle, Color.BLACK);
-        StyleConstants.setForeground(errorTextStyle, Color.RED);
-        StyleConstants.setBold(matchTextStyle, true);
-
         UIManager.put("ToolTip.background", Color.WHITE);
         UIManager.put("ToolTip.foreground", Color.BLACK);
         UIManager.put("ToolTip.font", font);
@@ -237,9 +233,19 @@ public final class MainUI extends JFrame {
         searchFileLbl.setDisplayedMnemonic('F');
 
         searchFileTf.setName("searchFileTf");
-        searchFileTf.setToolTipText("<html>File name to search.<br />Path can be separated by ., / or \\</html>");
+        searchFileTf.setToolTipText("<html>File name to search.<br />Path can be separated by ., / or \\<br />"
+                + "Comma(,) separate to search for many<br />"
+                + "Prefix with glob: or regex: to match the whole path, e.g. glob:**/impl/*Service.class</html>");
+
+        JLabel containingTextLbl = new JLabel("Containing: ");
+        containingTextLbl.setLabelFor(containingTextTf);
+        containingTextLbl.setDisplayedMnemonic('C');
+
+        containingTextTf.setName("containingTextTf");
+        containingTextTf.setToolTipText("<html>Optional. Text to search in the contents of the matching files<br />"
+                + "Each occurrence is shown with its byte offset</html>");
 
-        shiftFocusOnUpDownArrowKeys(searchPathsTf, typeOfFilesTf, searchFileTf);
+        shiftFocusOnUpDownArrowKeys(searchPathsTf, typeOfFilesTf, searchFileTf, containingTextTf);
 
         caseInsensitiveSearchCb.setName("caseInsensitiveSearchCb");
         caseInsensitiveSearchCb.setMnemonic(KeyEvent.VK_I);
@@ -252,28 +258,25 @@ public final class MainUI extends JFrame {
 
         /********* These need initialization here as we are using in below runnable ********/
 
-        JTextPane jtp = new JTextPane();
-        jtp.setEditable(false);
-        results = jtp.getStyledDocument();
+        resultsList.setCellRenderer(new ResultCellRenderer());
 
         msgLblDefaultForeground = msgLbl.getForeground();
 
         /**********************************/
 
         searchBtn.setMnemonic('S');
-        TextAreaUpdateHelper textAreaUpdateHelper = new TextAreaUpdateHelper(results);
         actionConsumer = e ->
         {
             searchFileTf.setBorder(defaultTextFieldBorder);
             msgLbl.setText(null);
             msgLbl.setForeground(Color.RED);
 
-            textAreaUpdateHelper.clear();
+            results.clear();
 
             if ("Author".equals(searchFileTf.getText())) {
-                SimpleAttributeSet italicTextStyle = new SimpleAttributeSet();
-                StyleConstants.setItalic(italicTextStyle, true);
-                textAreaUpdateHelper.addNewLine("S Venkata Raju. raju7003@gmail.com", italicTextStyle);
+                results.add(null, "S Venkata Raju. raju7003@gmail.com", false);
+                results.fireAdded(0);
+                updateResultsListCellSize();
             }
 
             List<String> searchPaths = split(searchPathsTf.getText(), ",");
@@ -302,6 +305,18 @@ public final class MainUI extends JFrame {
                 searchFileTf.setBorder(errorBorder);
                 return;
             }
+
+            try {
+                zipSearcher = new ZipSearcher(searchPaths, searchFileExtns,
+                        searchWithInArchivesCb.isSelected(), filePathToSearch, caseInsensitiveSearchCb.isSelected())
+                        .listingCache(listingCache)
+                        .registerMBean(true); // For jconsole
+            } catch (PatternSyntaxException ex) {
+                msgLbl.setText("Invalid pattern: " + ex.getDescription());
+                searchFileTf.requestFocusInWindow();
+                searchFileTf.setBorder(errorBorder);
+                return;
+            }
             searchFileTf.setBorder(defaultTextFieldBorder);
 
             searchBtn.setEnabled(false);
@@ -310,8 +325,13 @@ public final class MainUI extends JFrame {
 
             noOfResults = 0;
 
-            zipSearcher = new ZipSearcher(searchPaths, searchFileExtns,
-                    searchWithInArchivesCb.isSelected(), filePathToSearch, caseInsensitiveSearchCb.isSelected());
+            List<String> filePathsToSearch = split(filePathToSearch, ",");
+            if (filePathsToSearch.size() > 1 && !filePathToSearch.startsWith(EntryMatcher.GLOB_PREFIX)
+                    && !filePathToSearch.startsWith(EntryMatcher.REGEX_PREFIX))
+                zipSearcher.patterns(filePathsToSearch);
+            String containingText = containingTextTf.getText();
+            if (!containingText.isEmpty())
+                zipSearcher.contentToSearch(containingText);
             FutureTask<Void> futureTask = new FutureTask<>(zipSearcher::startSearch, null);
             startTime = System.currentTimeMillis();
 
@@ -327,15 +347,31 @@ public final class MainUI extends JFrame {
                     int noOfFilesSearched = zipSearcher.getNoOfFilesSearched();
                     Collection<Result> newResults = zipSearcher.getNewResults();
                     int noOfArchivesSearched = zipSearcher.getNoOfArchivesSearched();
+                    int fromIndex = results.getSize(), longestRow = results.getLongestRow();
+                    StringBuilder text = new StringBuilder();
                     for (Result result : newResults) {
                         if (result.resultType == Result.ResultType.MSG) {
                             noOfResults++;
                             // TODO: Hilight
-                            textAreaUpdateHelper.addNewLine(result.msg, infTextStyle);
+                            text.setLength(0);
+                            if (result.container != null) {
+                                result.appendEntryName(text);
+                            } else {
+                                text.append(result.text);
+                            }
+                            if (result.offset != -1)
+                                text.append(" @ ").append(result.offset);
+                            if (result.pattern != null)
+                                text.append("  [").append(result.pattern).append(']');
+                            results.add(result.container, text, false);
                         } else {
-                            textAreaUpdateHelper.addNewLine(result.msg, errorTextStyle);
+                            results.add(null, result.msg(), true);
                         }
                     }
+                    // One event per tick, however many the results
+                    results.fireAdded(fromIndex);
+                    if (results.getLongestRow() != longestRow)
+                        updateResultsListCellSize();
 
                     String fmtStr = "<html>Searched <font face='courier'>%s</font> %s, "
                             + "<font face='courier'>%s</font> %s. "
@@ -394,10 +430,7 @@ public final class MainUI extends JFrame {
         msgLbl.setBorder(BorderFactory.createEmptyBorder(0, 4, 0, 0));
 
         {
-            JPanel noWrapPanel = new JPanel(new BorderLayout());
-            noWrapPanel.add(jtp);
-            JScrollPane jsp = new JScrollPane(noWrapPanel);
-            jsp.setViewportView(jtp);
+            JScrollPane jsp = new JScrollPane(resultsList);
             cp.add(jsp, BorderLayout.CENTER);
         }
 
@@ -411,7 +444,10 @@ public final class MainUI extends JFrame {
         gbLayoutHelper.addComponant(searchFileTf, 1, 2, 1, 1.0D);
         gbLayoutHelper.addComponant(caseInsensitiveSearchCb, 2, 2, 1, 0.0D);
 
-        gbLayoutHelper.addComponant(buttonsAndLabelPanel, 0, 3, 3, 1.0D);
+        gbLayoutHelper.addComponant(containingTextLbl, 0, 3, 1, 0.0D);
+        gbLayoutHelper.addComponant(containingTextTf, 1, 3, 1, 1.0D);
+
+        gbLayoutHelper.addComponant(buttonsAndLabelPanel, 0, 4, 3, 1.0D);
         buttonsGbLayoutHelper.addComponant(buttonsPanel, 0, 0, 1, 0.0D);
         buttonsPanel.add(searchBtn);
         buttonsPanel.add(stopBtn);
@@ -578,38 +614,28 @@ public final class MainUI extends JFrame {
         }
     }
 
-    private static class TextAreaUpdateHelper {
-        private final StyledDocument sd;
-
-        TextAreaUpdateHelper(StyledDocument sd) {
-            this.sd = sd;
-        }
-
-        void clear() {
-            try {
-                sd.remove(0, sd.getLength());
-            } catch (BadLocationException e) {
-                e.printStackTrace();
-                throw new RuntimeException(e.getMessage(), e);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+    /**
+     * Fixed, so that the list doesn't measure every row. The width is of the
+     * longest (in chars) row
+     */
+    private void updateResultsListCellSize() {
+        FontMetrics fm = resultsList.getFontMetrics(resultsList.getFont());
+        resultsList.setFixedCellHeight(fm.getHeight() + 2);
+        int longestRow = results.getLongestRow();
+        resultsList.setFixedCellWidth((longestRow == -1) ? -1
+                : fm.stringWidth(results.getElementAt(longestRow)) + 16);
+    }
 
-        void appendText(String txt, AttributeSet as) {
-            try {
-                sd.insertString(sd.getLength(), txt, as);
-            } catch (BadLocationException e) {
-                e.printStackTrace();
-                throw new RuntimeException(e.getMessage(), e);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+    private static final class ResultCellRenderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
 
-        void addNewLine(String txt, AttributeSet as) {
-            appendText(txt, as);
-            appendText(System.lineSeparator(), null);
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                                                      boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            if (!isSelected && ((ResultListModel) list.getModel()).isError(index))
+                setForeground(Color.RED);
+            return this;
         }
     }
 
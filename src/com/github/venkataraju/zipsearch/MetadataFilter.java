@@ -0,0 +1,209 @@
+package com.github.venkataraju.zipsearch;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Conditions on an entry's central directory metadata: size, compressed size,
+ * last modified time, compression method and CRC. Evaluated from the
+ * directory records (or listings) alone, i.e. without reading the entries.
+ * <p>
+ * Time is compared as DOS time (local time, 2 second precision), as in the
+ * records. The bounds are converted to it once, so no entry's time is
+ * converted. Extended timestamps (extra field) aren't looked at.
+ * <p>
+ * Immutable. Made using {@link #parse(String)}.
+ */
+final class MetadataFilter {
+    static final String SYNTAX = "Comma separated conditions on size, csize (compressed size), mtime, method or crc."
+            + " e.g. size>1m,mtime>=2020-01-31,method=stored,crc=cafebabe";
+
+    private static final int UNKNOWN_METHOD = -1;
+
+    // Inclusive bounds
+    private long minSize = 0, maxSize = Long.MAX_VALUE;
+    private long minCompressedSize = 0, maxCompressedSize = Long.MAX_VALUE;
+    private long minDosTime = 0, maxDosTime = 0xFFFFFFFFL;
+    private int method = UNKNOWN_METHOD;
+    private long crc = -1;
+
+    private MetadataFilter() {
+    }
+
+    /**
+     * @param conditions Comma separated field-operator-value. Fields: size,
+     *                   csize (k/m/g suffixes), mtime (yyyy-mm-dd or
+     *                   yyyy-mm-ddThh:mm[:ss], local time), method (stored,
+     *                   deflated or no.) and crc (hex). Operators: &lt;,
+     *                   &lt;=, =, &gt;=, &gt; (only = for method and crc)
+     * @throws IllegalArgumentException If invalid
+     */
+    static MetadataFilter parse(String conditions) {
+        MetadataFilter filter = new MetadataFilter();
+        for (String condition : conditions.split(",")) {
+            if (!(condition = condition.trim()).isEmpty())
+                filter.add(condition);
+        }
+        return filter;
+    }
+
+    private void add(String condition) {
+        int opStart = 0;
+        while (opStart < condition.length() && Character.isLetter(condition.charAt(opStart)))
+            opStart++;
+        int opEnd = opStart;
+        while (opEnd < condition.length() && "<>=".indexOf(condition.charAt(opEnd)) != -1)
+            opEnd++;
+        String field = condition.substring(0, opStart).toLowerCase(Locale.ROOT);
+        String op = condition.substring(opStart, opEnd), value = condition.substring(opEnd).trim();
+        if (op.isEmpty() || value.isEmpty())
+            throw new IllegalArgumentException("Invalid condition: " + condition + ". " + SYNTAX);
+
+        switch (field) {
+            case "size": {
+                long[] bounds = bounds(op, parseSize(value), minSize, maxSize, condition);
+                minSize = bounds[0];
+                maxSize = bounds[1];
+                break;
+            }
+            case "csize": {
+                long[] bounds = bounds(op, parseSize(value), minCompressedSize, maxCompressedSize, condition);
+                minCompressedSize = bounds[0];
+                maxCompressedSize = bounds[1];
+                break;
+            }
+            case "mtime": {
+                long[] bounds = bounds(op, parseDosTime(value), minDosTime, maxDosTime, condition);
+                minDosTime = bounds[0];
+                maxDosTime = bounds[1];
+                break;
+            }
+            case "method":
+                checkEquals(op, condition);
+                method = parseMethod(value);
+                break;
+            case "crc":
+                checkEquals(op, condition);
+                try {
+                    crc = Long.parseLong(value.startsWith("0x") ? value.substring(2) : value, 16) & 0xFFFFFFFFL;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid CRC: " + value);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field + ". " + SYNTAX);
+        }
+    }
+
+    /**
+     * @return {min, max}, narrowed by the condition
+     */
+    private static long[] bounds(String op, long value, long min, long max, String condition) {
+        switch (op) {
+            case "<":
+                return new long[]{min, Math.min(max, value - 1)};
+            case "<=":
+                return new long[]{min, Math.min(max, value)};
+            case "=":
+                return new long[]{Math.max(min, value), Math.min(max, value)};
+            case ">=":
+                return new long[]{Math.max(min, value), max};
+            case ">":
+                return new long[]{Math.max(min, value + 1), max};
+            default:
+                throw new IllegalArgumentException("Invalid operator: " + condition);
+        }
+    }
+
+    private static void checkEquals(String op, String condition) {
+        if (!op.equals("="))
+            throw new IllegalArgumentException("Only = is supported: " + condition);
+    }
+
+    private static long parseSize(String value) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        char unit = lower.charAt(lower.length() - 1);
+        int shift = (unit == 'k') ? 10 : (unit == 'm') ? 20 : (unit == 'g') ? 30 : 0;
+        try {
+            return Long.parseLong((shift == 0) ? lower : lower.substring(0, lower.length() - 1)) << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+    }
+
+    private static long parseDosTime(String value) {
+        LocalDateTime time;
+        try {
+            time = (value.indexOf('T') == -1) ? LocalDate.parse(value).atStartOfDay() : LocalDateTime.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time: " + value + ". Expected yyyy-mm-dd[Thh:mm[:ss]]");
+        }
+        return dosTime(time);
+    }
+
+    private static int parseMethod(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "stored":
+                return CentralDirectory.STORED;
+            case "deflated":
+                return CentralDirectory.DEFLATED;
+            default:
+                try {
+                    return Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid method: " + value + ". Expected stored, deflated or no.");
+                }
+        }
+    }
+
+    /**
+     * DOS date and time fields, high to low: year - 1980 (7 bits), month,
+     * day, hour, minute, second / 2. So they compare as the times do
+     */
+    static long dosTime(LocalDateTime time) {
+        int year = time.getYear();
+        if (year < 1980)
+            return 0;
+        if (year > 1980 + 127)
+            return 0xFFFFFFFFL;
+        return ((long) (year - 1980) << 25) | (time.getMonthValue() << 21) | (time.getDayOfMonth() << 16)
+                | (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+    }
+
+    /**
+     * For the entries read by {@link java.util.zip.ZipInputStream}, whose DOS
+     * time isn't exposed
+     */
+    static long dosTime(long javaTime) {
+        return dosTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(javaTime), ZoneId.systemDefault()));
+    }
+
+    boolean hasTimeCondition() {
+        return minDosTime != 0 || maxDosTime != 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return true if CRC or sizes are conditioned, which a
+     *         {@link java.util.zip.ZipInputStream} knows only after reading
+     *         the entry, for the entries having a data descriptor
+     */
+    boolean needsSizesOrCrc() {
+        return minSize != 0 || maxSize != Long.MAX_VALUE || minCompressedSize != 0
+                || maxCompressedSize != Long.MAX_VALUE || crc != -1;
+    }
+
+    /**
+     * Doesn't create any objects
+     */
+    boolean accept(long size, long compressedSize, long dosTime, int method, long crc) {
+        return size >= minSize && size <= maxSize
+                && compressedSize >= minCompressedSize && compressedSize <= maxCompressedSize
+                && dosTime >= minDosTime && dosTime <= maxDosTime
+                && (this.method == UNKNOWN_METHOD || method == this.method)
+                && (this.crc == -1 || crc == this.crc);
+    }
+}
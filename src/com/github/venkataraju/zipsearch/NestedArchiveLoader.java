@@ -0,0 +1,197 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates compressed nested archives, so that their central directory can be
+ * read (i.e. random access) instead of streaming through them.
+ * <p>
+ * Archives up to {@code maxInMemorySize} are inflated in to pooled byte
+ * arrays, as long as the memory budget (shared by all the concurrent loads)
+ * allows. Others are inflated in to a temp file, which is deleted on close.
+ * <p>
+ * Thread safe.
+ */
+final class NestedArchiveLoader {
+    private static final int MIN_BUF_SIZE = 64 << 10;
+    private static final int MAX_POOLED_BUFS_PER_SIZE = 4;
+
+    private static final NestedArchiveLoader DEFAULT = new NestedArchiveLoader(32 << 20,
+            Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4), null);
+
+    private final int maxInMemorySize;
+    private final long memoryBudget;
+    private final Path tempDir;
+
+    // Bytes of all the buffers (in use + pooled) allocated by this loader
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    // Index: log2(buffer size)
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Deque<byte[]>[] pool = new Deque[31];
+
+    /**
+     * @param maxInMemorySize Bigger archives are inflated in to temp files
+     * @param memoryBudget    Max bytes of the buffers held by this loader
+     * @param tempDir         null for the default temp directory
+     */
+    NestedArchiveLoader(int maxInMemorySize, long memoryBudget, Path tempDir) {
+        if (maxInMemorySize < 0 || maxInMemorySize > (1 << 30))
+            throw new IllegalArgumentException("maxInMemorySize: " + maxInMemorySize);
+        this.maxInMemorySize = maxInMemorySize;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+        for (int i = 0; i < pool.length; i++)
+            pool[i] = new ArrayDeque<>();
+    }
+
+    static NestedArchiveLoader getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param inflaters May be null. See
+     *                  {@link CentralDirectory#openEntry(CentralDirectory.Entry, InflaterPool)}
+     * @return Inflated contents of the {@code entry}. Should be closed to
+     *         release the buffer/temp file
+     */
+    ArchiveData load(CentralDirectory centralDirectory, CentralDirectory.Entry entry, InflaterPool inflaters)
+            throws IOException {
+        long size = entry.size;
+        byte[] buf = (size <= maxInMemorySize) ? borrow((int) size) : null;
+        try (InputStream is = centralDirectory.openEntry(entry, inflaters)) {
+            if (buf != null) {
+                readFully(is, buf, (int) size);
+                return new PooledData(ByteBuffer.wrap(buf, 0, (int) size), buf);
+            }
+            return inflateToTempFile(is, size);
+        } catch (IOException | RuntimeException e) {
+            if (buf != null)
+                giveBack(buf);
+            throw e;
+        }
+    }
+
+    private static void readFully(InputStream is, byte[] buf, int size) throws IOException {
+        for (int n, off = 0; off < size; off += n) {
+            if ((n = is.read(buf, off, size - off)) == -1)
+                throw new EOFException("Entry is smaller than its size in central directory");
+        }
+        if (is.read() != -1)
+            throw new ZipException("Entry is bigger than its size in central directory");
+    }
+
+    private ArchiveData inflateToTempFile(InputStream is, long size) throws IOException {
+        Path tempFile = (tempDir == null) ? Files.createTempFile("zipsearch", ".tmp")
+                : Files.createTempFile(tempDir, "zipsearch", ".tmp");
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            OutputStream os = Channels.newOutputStream(channel);
+            byte[] buf = new byte[8192];
+            long written = 0;
+            for (int n; (n = is.read(buf)) != -1; written += n)
+                os.write(buf, 0, n);
+            if (written != size)
+                throw new ZipException("Entry size doesn't match its size in central directory");
+
+            FileChannel tempChannel = channel;
+            return new ArchiveData.FileData(tempChannel) {
+                @Override
+                public void close() throws IOException {
+                    tempChannel.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            if (channel != null)
+                channel.close();
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * @return null if the memory budget doesn't allow
+     */
+    private byte[] borrow(int size) {
+        int sizeClass = sizeClass(size);
+        synchronized (pool) {
+            byte[] buf = pool[sizeClass].poll();
+            if (buf != null)
+                return buf;
+        }
+
+        int bufSize = 1 << sizeClass;
+        if (!reserve(bufSize)) {
+            releasePooled(); // Idle buffers of other sizes may be holding the budget
+            if (!reserve(bufSize))
+                return null;
+        }
+        return new byte[bufSize];
+    }
+
+    private void giveBack(byte[] buf) {
+        synchronized (pool) {
+            Deque<byte[]> bufs = pool[sizeClass(buf.length)];
+            if (bufs.size() < MAX_POOLED_BUFS_PER_SIZE) {
+                bufs.push(buf);
+                return;
+            }
+        }
+        reservedBytes.addAndGet(-buf.length);
+    }
+
+    private boolean reserve(int bytes) {
+        for (long reserved; (reserved = reservedBytes.get()) + bytes <= memoryBudget; ) {
+            if (reservedBytes.compareAndSet(reserved, reserved + bytes))
+                return true;
+        }
+        return false;
+    }
+
+    private void releasePooled() {
+        long released = 0;
+        synchronized (pool) {
+            for (Deque<byte[]> bufs : pool) {
+                for (byte[] buf; (buf = bufs.poll()) != null; )
+                    released += buf.length;
+            }
+        }
+        reservedBytes.addAndGet(-released);
+    }
+
+    private static int sizeClass(int size) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(size, MIN_BUF_SIZE) - 1);
+    }
+
+    private final class PooledData extends ArchiveData.BufferData {
+        private byte[] buf;
+
+        PooledData(ByteBuffer byteBuffer, byte[] buf) {
+            super(byteBuffer);
+            this.buf = buf;
+        }
+
+        @Override
+        public void close() {
+            if (buf != null) {
+                giveBack(buf);
+                buf = null;
+            }
+        }
+    }
+}
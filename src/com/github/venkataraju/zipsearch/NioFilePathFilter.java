@@ -0,0 +1,89 @@
+package com.github.venkataraju.zipsearch;
+
+import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Accepts directories and files with any of the given extensions. Doesn't
+ * depend on Swing, so that searching doesn't load it
+ */
+final class NioFilePathFilter implements Filter<Path> {
+    private static final String CASE_SENSITIVE_KEY = "S:", CASE_INSENSITIVE_KEY = "I:";
+
+    private final boolean caseSensitive;
+    private final Set<String> extns;
+
+    /**
+     * @param caseSensitive true - If {@code extns} should be considered as case sensitive
+     */
+    NioFilePathFilter(boolean caseSensitive, Collection<String> extns) {
+        this.caseSensitive = caseSensitive;
+        this.extns = extns.stream()
+                .map(str -> caseSensitive ? str : str.toLowerCase())
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    @Override
+    public boolean accept(Path path) {
+        if (Files.isDirectory(path))
+            return true;
+        Path fileName = path.getFileName();
+        return fileName != null && acceptExtnOf(fileName.toString());
+    }
+
+    boolean acceptExtn(String extn) {
+        return extns.contains(caseSensitive ? extn : extn.toLowerCase());
+    }
+
+    /**
+     * Same as {@code acceptExtn(Util.getExtension(fileName))}, but without
+     * creating any objects
+     */
+    boolean acceptExtnOf(CharSequence fileName) {
+        int len = fileName.length();
+        for (String extn : extns) {
+            int dotIndex = len - extn.length() - 1;
+            if (dotIndex >= 0 && fileName.charAt(dotIndex) == '.'
+                    && Util.regionMatches(fileName, dotIndex + 1, extn, !caseSensitive)
+                    && extn.indexOf('.') == -1)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return Same for the filters accepting the same extensions
+     */
+    String getExtnsKey() {
+        return (caseSensitive ? CASE_SENSITIVE_KEY : CASE_INSENSITIVE_KEY) + String.join(",", new TreeSet<>(extns));
+    }
+
+    /**
+     * @return true if the case insensitive filter (of the key) accepts all
+     *         that the case sensitive one does, i.e. the same extensions
+     *         ignoring the case
+     */
+    static boolean coversExtnsKey(String insensitiveKey, String sensitiveKey) {
+        if (!insensitiveKey.startsWith(CASE_INSENSITIVE_KEY) || !sensitiveKey.startsWith(CASE_SENSITIVE_KEY))
+            return false;
+        // Lower cased as by the case insensitive filter
+        String foldedExtns = String.join(",", new TreeSet<>(Arrays.asList(
+                sensitiveKey.substring(CASE_SENSITIVE_KEY.length()).toLowerCase().split(","))));
+        return insensitiveKey.substring(CASE_INSENSITIVE_KEY.length()).equals(foldedExtns);
+    }
+
+    boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    Set<String> getExtns() {
+        return extns;
+    }
+}
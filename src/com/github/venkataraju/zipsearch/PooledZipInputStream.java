@@ -0,0 +1,50 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipInputStream;
+
+/**
+ * {@link ZipInputStream} inflating using an {@link Inflater} borrowed from an
+ * {@link InflaterPool}, instead of its own (which is ended right away, before
+ * it has allocated its window). The borrowed one is given back on
+ * {@link #close()}, or on {@link #release()} for a nested stream, which can't
+ * be closed as that would close the outer stream.
+ */
+final class PooledZipInputStream extends ZipInputStream {
+    private final InflaterPool inflaters;
+    private final Inflater ownInflater;
+    private boolean released;
+
+    PooledZipInputStream(InputStream in, InflaterPool inflaters) {
+        super(in);
+        this.inflaters = inflaters;
+        this.ownInflater = inf;
+        ownInflater.end();
+        inf = inflaters.borrow();
+    }
+
+    /**
+     * Gives back the Inflater, without closing the underlying stream. The
+     * stream can't be read after this
+     */
+    void release() {
+        if (!released) {
+            released = true;
+            Inflater borrowed = inf;
+            // Ending it again, on close, does nothing
+            inf = ownInflater;
+            inflaters.giveBack(borrowed);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            release();
+        } finally {
+            super.close();
+        }
+    }
+}
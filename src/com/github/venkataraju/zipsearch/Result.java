@@ -1,23 +1,91 @@
 package com.github.venkataraju.zipsearch;
 
+import java.io.File;
+
+/**
+ * A match (or an error). A match within an archive keeps the archive's path
+ * (the container, shared by all the matches in it) and the entry name
+ * separately, so that many matches don't keep copies of the same long
+ * prefix. The full path is made by {@link #msg()}, when it's shown.
+ */
 final class Result {
     final ResultType resultType;
-    final String msg;
+    // Path of the archive having the entry, or of the archive an error is
+    // about. Null if neither
+    final String container;
+    // Entry name (as in the archive, i.e. / separated) if a match in a
+    // container. Else the message
+    final String text;
+    // Of the content match within the entry (msg). -1 if not a content match
+    final long offset;
+    // Pattern that matched when searching for many, or the referencing
+    // constant when searching for references. Else null
+    final String pattern;
 
     static enum ResultType {
         MSG, ERR;
     }
 
     Result(ResultType resultType, String msg) {
+        this(resultType, null, msg, -1, null);
+    }
+
+    Result(ResultType resultType, String container, String text, long offset, String pattern) {
         this.resultType = resultType;
-        this.msg = msg;
+        this.container = container;
+        this.text = text;
+        this.offset = offset;
+        this.pattern = pattern;
     }
 
     static Result msg(String errorMessage) {
         return new Result(ResultType.MSG, errorMessage);
     }
 
+    static Result match(String container, String entryName, String pattern) {
+        return new Result(ResultType.MSG, container, entryName, -1, pattern);
+    }
+
+    static Result contentMatch(String container, String entryName, long offset, String pattern) {
+        return new Result(ResultType.MSG, container, entryName, offset, pattern);
+    }
+
     static Result err(String errorMessage) {
         return new Result(ResultType.ERR, errorMessage);
     }
-}
\ No newline at end of file
+
+    /**
+     * @param container Path of the archive (or the archive having the entry)
+     *            which couldn't be searched (completely)
+     */
+    static Result err(String container, String errorMessage) {
+        return new Result(ResultType.ERR, container, errorMessage, -1, null);
+    }
+
+    /**
+     * @return Path of the entry (as Path.resolve would make it), or the
+     *         message. Made on every call
+     */
+    String msg() {
+        if (container == null || resultType == ResultType.ERR)
+            return text;
+        StringBuilder sb = new StringBuilder(container.length() + 1 + text.length()).append(container);
+        appendEntryName(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a separator and the entry name, with the platform's separator
+     * and without empty names (e.g. a directory's trailing /)
+     */
+    void appendEntryName(StringBuilder sb) {
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = text.charAt(i);
+            if (c != '/') {
+                if (i == 0 || text.charAt(i - 1) == '/')
+                    sb.append(File.separatorChar);
+                sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.github.venkataraju.zipsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * Rows of the results list. A row is its container (the archive's path, kept
+ * once for all its rows, by id) and its text (the rest of the row). The text
+ * of all the rows is kept in a single char arena, and a row's String is made
+ * only when it is rendered (i.e. visible), so that millions of results take
+ * little more than their entry names.
+ * <p>
+ * Not thread safe. Used in the EDT only.
+ */
+final class ResultListModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+
+    private char[] chars = new char[1 << 12];
+    // Row i's text is chars[ends[i - 1], ends[i]), ends[-1] being 0
+    private int[] ends = new int[256];
+    // Row i's container is containers[containerIds[i]]. -1 if none
+    private int[] containerIds = new int[256];
+    private final List<String> containers = new ArrayList<>();
+    private final Map<String, Integer> containerIdsByPath = new HashMap<>();
+    private int lastContainerId = -1;
+    private int size;
+    private final BitSet errorRows = new BitSet();
+    private int longestRow = -1;
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        int start = start(index), containerId = containerIds[index];
+        if (containerId == -1)
+            return new String(chars, start, ends[index] - start);
+        String container = containers.get(containerId);
+        return new StringBuilder(container.length() + ends[index] - start).append(container)
+                .append(chars, start, ends[index] - start).toString();
+    }
+
+    boolean isError(int index) {
+        return errorRows.get(index);
+    }
+
+    /**
+     * @return Index of the longest row (-1 if none), to size the list without
+     *         measuring all the rows
+     */
+    int getLongestRow() {
+        return longestRow;
+    }
+
+    /**
+     * Appends a row, without notifying the listeners. Call
+     * {@link #fireAdded(int)} once after a batch of these
+     *
+     * @param container May be null
+     * @param text      Rest of the row
+     */
+    void add(String container, CharSequence text, boolean error) {
+        int start = (size == 0) ? 0 : ends[size - 1], len = text.length();
+        if (start + len > chars.length) {
+            // Arrays can hold up to ~2G chars
+            chars = Arrays.copyOf(chars, (int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max(start + len, chars.length * 2L)));
+        }
+        for (int i = 0; i < len; i++)
+            chars[start + i] = text.charAt(i);
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, size * 2);
+            containerIds = Arrays.copyOf(containerIds, size * 2);
+        }
+        int containerId = containerId(container);
+        if (error)
+            errorRows.set(size);
+        containerIds[size] = containerId;
+        ends[size] = start + len;
+        if (longestRow == -1 || length(size) > length(longestRow))
+            longestRow = size;
+        size++;
+    }
+
+    private int containerId(String container) {
+        if (container == null)
+            return -1;
+        // The rows of a container are mostly together
+        if (lastContainerId != -1 && containers.get(lastContainerId).equals(container))
+            return lastContainerId;
+        Integer id = containerIdsByPath.get(container);
+        if (id == null) {
+            id = containers.size();
+            containers.add(container);
+            containerIdsByPath.put(container, id);
+        }
+        return lastContainerId = id;
+    }
+
+    private int length(int index) {
+        int containerId = containerIds[index];
+        return ends[index] - ((index == 0) ? 0 : ends[index - 1])
+                + ((containerId == -1) ? 0 : containers.get(containerId).length());
+    }
+
+    /**
+     * @param fromIndex Size before adding the batch
+     */
+    void fireAdded(int fromIndex) {
+        if (size > fromIndex)
+            fireIntervalAdded(this, fromIndex, size - 1);
+    }
+
+    void clear() {
+        int oldSize = size;
+        chars = new char[1 << 12];
+        ends = new int[256];
+        containerIds = new int[256];
+        containers.clear();
+        containerIdsByPath.clear();
+        lastContainerId = -1;
+        size = 0;
+        errorRows.clear();
+        longestRow = -1;
+        if (oldSize > 0)
+            fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+
+    private int start(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        return (index == 0) ? 0 : ends[index - 1];
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progress of a search, saved periodically by the {@link ZipSearcher}, so
+ * that a stopped (cancelled, timed out or killed) search can be resumed: the
+ * on disk archives searched completely, with their results. When resumed,
+ * those archives are not searched again (if their size and last modified time
+ * are the same), but their results are replayed.
+ * <p>
+ * As the folders are walked in parallel, there's no single position in the
+ * walk to resume from. The folders are walked again (which only lists them),
+ * skipping the archives done.
+ * <p>
+ * A checkpoint is only for the search it was made by, identified by a key
+ * given by the caller (e.g. the search's arguments). Layout (little endian):
+ *
+ * <pre>
+ * int MAGIC, int VERSION, int searchKeyLen, searchKey (UTF-8), int archiveCount
+ * archiveCount times:
+ *     int pathLen, path (UTF-8), long size, long lastModified, int resultCount
+ *     resultCount times:
+ *         int containerLen, container (UTF-8, relative to the path),
+ *         int entryNameLen, entryName (UTF-8), long offset,
+ *         int patternLen (-1 if null), pattern (UTF-8)
+ * </pre>
+ * <p>
+ * Thread safe.
+ */
+final class SearchCheckpoint {
+    static final long SAVE_INTERVAL_MS = 30_000;
+
+    private static final int MAGIC = 0x5A534350 /* ZSCP */, VERSION = 2;
+
+    private final Path checkpointFile;
+    private final String searchKey;
+    private final Map<String, DoneArchive> archives = new ConcurrentHashMap<>();
+
+    private volatile boolean modified;
+
+    private SearchCheckpoint(Path checkpointFile, String searchKey) {
+        this.checkpointFile = checkpointFile;
+        this.searchKey = searchKey;
+    }
+
+    /**
+     * @return Empty checkpoint if the file doesn't exist, isn't readable or is
+     *         of another search
+     */
+    static SearchCheckpoint load(Path checkpointFile, String searchKey, Diagnostics diagnostics) {
+        SearchCheckpoint checkpoint = new SearchCheckpoint(checkpointFile, searchKey);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                throw new IOException("Not a (supported) checkpoint file: " + checkpointFile);
+            if (!getString(buf).equals(searchKey)) {
+                diagnostics.log(Diagnostics.Level.WARN, "Checkpoint is of another search, starting over: "
+                        + checkpointFile, null);
+                return checkpoint;
+            }
+
+            for (int i = 0, archiveCount = buf.getInt(); i < archiveCount; i++) {
+                String path = getString(buf);
+                long size = buf.getLong(), lastModified = buf.getLong();
+                int resultCount = buf.getInt();
+                List<Result> results = new ArrayList<>(resultCount);
+                String container = null;
+                for (int j = 0; j < resultCount; j++) {
+                    String resultContainer = getString(buf);
+                    if (!resultContainer.equals(container))
+                        container = resultContainer; // Else shared, as when searched
+                    String entryName = getString(buf);
+                    long offset = buf.getLong();
+                    results.add(new Result(Result.ResultType.MSG, container, entryName, offset, getString(buf)));
+                }
+                checkpoint.archives.put(path, new DoneArchive(size, lastModified, results));
+            }
+        } catch (NoSuchFileException e) {
+            // New search
+        } catch (IOException | RuntimeException e) {
+            diagnostics.warn("Unable to read the checkpoint, starting over: " + checkpointFile, e);
+            checkpoint.archives.clear();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return Results of the archive (relative to its path), if it was
+     *         searched completely and hasn't changed since. Else null
+     */
+    List<Result> results(Path archive, BasicFileAttributes attrs) {
+        DoneArchive done = archives.get(key(archive));
+        if (done == null || done.size != attrs.size() || done.lastModified != attrs.lastModifiedTime().toMillis())
+            return null;
+        return done.results;
+    }
+
+    /**
+     * @param results Relative to the archive's path. Not copied
+     */
+    void done(Path archive, BasicFileAttributes attrs, List<Result> results) {
+        archives.put(key(archive), new DoneArchive(attrs.size(), attrs.lastModifiedTime().toMillis(),
+                Collections.unmodifiableList(results)));
+        modified = true;
+    }
+
+    /**
+     * @return No. of archives done
+     */
+    int size() {
+        return archives.size();
+    }
+
+    /**
+     * Writes the checkpoint, if changed
+     */
+    synchronized void save() throws IOException {
+        if (!modified)
+            return;
+        modified = false; // Before writing, so that archives done meanwhile are saved next time
+
+        Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16)) {
+            ByteBuffer buf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            os.write(buf.putInt(MAGIC).putInt(VERSION).array());
+            putString(os, searchKey);
+            // Counted as written, as archives may be added meanwhile
+            List<Map.Entry<String, DoneArchive>> entries = new ArrayList<>(archives.entrySet());
+            putInt(os, buf, entries.size());
+            for (Map.Entry<String, DoneArchive> e : entries) {
+                DoneArchive done = e.getValue();
+                putString(os, e.getKey());
+                putLong(os, buf, done.size);
+                putLong(os, buf, done.lastModified);
+                putInt(os, buf, done.results.size());
+                for (Result result : done.results) {
+                    putString(os, result.container);
+                    putString(os, result.text);
+                    putLong(os, buf, result.offset);
+                    putString(os, result.pattern);
+                }
+            }
+        } catch (IOException e) {
+            modified = true;
+            throw e;
+        }
+
+        try {
+            Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Once the search is complete, as there's nothing to resume
+     */
+    synchronized void delete() throws IOException {
+        Files.deleteIfExists(checkpointFile);
+        modified = false;
+    }
+
+    private static String key(Path archive) {
+        return archive.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * @return null if written so
+     */
+    private static String getString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len == -1)
+            return null;
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param str May be null
+     */
+    private static void putString(OutputStream os, String str) throws IOException {
+        byte[] bytes = (str != null) ? str.getBytes(StandardCharsets.UTF_8) : null;
+        os.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((bytes != null) ? bytes.length : -1)
+                .array());
+        if (bytes != null)
+            os.write(bytes);
+    }
+
+    private static void putInt(OutputStream os, ByteBuffer buf, int value) throws IOException {
+        buf.clear();
+        os.write(buf.putInt(value).array(), 0, 4);
+    }
+
+    private static void putLong(OutputStream os, ByteBuffer buf, long value) throws IOException {
+        buf.clear();
+        os.write(buf.putLong(value).array());
+    }
+
+    private static final class DoneArchive {
+        final long size, lastModified;
+        final List<Result> results;
+
+        DoneArchive(long size, long lastModified, List<Result> results) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.results = results;
+        }
+    }
+}
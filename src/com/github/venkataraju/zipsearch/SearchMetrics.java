@@ -0,0 +1,228 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput counters and timings of a search, updated by the workers and read
+ * while searching (e.g. through JMX as {@link SearchMetricsMXBean}). Counters
+ * are {@link LongAdder}s, so the workers don't contend on them.
+ * <p>
+ * Time is split in to inflating (reading the entries and nested archives) and
+ * matching (listing the entries and matching their names and contents). Only
+ * the slowest {@link #NO_OF_SLOWEST} archives' timings are kept.
+ * <p>
+ * Thread safe.
+ */
+final class SearchMetrics implements SearchMetricsMXBean {
+    static final int NO_OF_SLOWEST = 10;
+
+    private final LongAdder noOfArchives = new LongAdder(), noOfFiles = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder(), uncompressedBytes = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder(), matchNanos = new LongAdder();
+    private final LongAdder noOfArchivesDeduplicated = new LongAdder();
+
+    private volatile long startNanos, endNanos;
+
+    // Fastest of the slowest at the head
+    private final PriorityQueue<ArchiveTiming> slowest = new PriorityQueue<>(NO_OF_SLOWEST + 1,
+            (t1, t2) -> Long.compare(t1.nanos, t2.nanos));
+    // Min. nanos to get in to the slowest, once full. To skip locking
+    private volatile long slowestThreshold;
+
+    void started() {
+        startNanos = System.nanoTime();
+    }
+
+    void ended() {
+        endNanos = System.nanoTime();
+    }
+
+    void archiveSearched() {
+        noOfArchives.increment();
+    }
+
+    void archiveDeduplicated() {
+        noOfArchivesDeduplicated.increment();
+    }
+
+    void fileSearched() {
+        noOfFiles.increment();
+    }
+
+    void addCompressedBytes(long bytes) {
+        compressedBytes.add(bytes);
+    }
+
+    void addUncompressedBytes(long bytes) {
+        uncompressedBytes.add(bytes);
+    }
+
+    void addInflateNanos(long nanos) {
+        inflateNanos.add(nanos);
+    }
+
+    void addMatchNanos(long nanos) {
+        matchNanos.add(nanos);
+    }
+
+    /**
+     * @param nanos To search the on disk archive, including its nested archives
+     */
+    void archiveTime(Path archive, long nanos) {
+        if (nanos <= slowestThreshold)
+            return;
+        synchronized (slowest) {
+            slowest.add(new ArchiveTiming(archive, nanos));
+            if (slowest.size() > NO_OF_SLOWEST) {
+                slowest.poll();
+                slowestThreshold = slowest.peek().nanos;
+            }
+        }
+    }
+
+    /**
+     * @param compressed Whether the bytes read are counted as compressed or
+     *                   uncompressed bytes
+     * @return Stream counting the bytes read and the time taken to read them
+     */
+    MeteredInputStream meter(InputStream is, boolean compressed) {
+        return new MeteredInputStream(is, compressed ? compressedBytes : uncompressedBytes);
+    }
+
+    @Override
+    public long getArchivesSearched() {
+        return noOfArchives.sum();
+    }
+
+    @Override
+    public long getArchivesDeduplicated() {
+        return noOfArchivesDeduplicated.sum();
+    }
+
+    @Override
+    public long getFilesSearched() {
+        return noOfFiles.sum();
+    }
+
+    @Override
+    public long getCompressedBytesRead() {
+        return compressedBytes.sum();
+    }
+
+    @Override
+    public long getUncompressedBytesRead() {
+        return uncompressedBytes.sum();
+    }
+
+    @Override
+    public long getInflateMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(inflateNanos.sum());
+    }
+
+    @Override
+    public long getMatchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(matchNanos.sum());
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        long start = startNanos, end = endNanos;
+        if (start == 0)
+            return 0;
+        return TimeUnit.NANOSECONDS.toMillis(((end == 0) ? System.nanoTime() : end) - start);
+    }
+
+    @Override
+    public String[] getSlowestArchives() {
+        List<ArchiveTiming> timings;
+        synchronized (slowest) {
+            timings = new ArrayList<>(slowest);
+        }
+        Collections.sort(timings, (t1, t2) -> Long.compare(t2.nanos, t1.nanos));
+        String[] slowestArchives = new String[timings.size()];
+        for (int i = 0; i < slowestArchives.length; i++) {
+            ArchiveTiming timing = timings.get(i);
+            slowestArchives[i] = TimeUnit.NANOSECONDS.toMillis(timing.nanos) + " ms " + timing.archive;
+        }
+        return slowestArchives;
+    }
+
+    /**
+     * One line summary
+     */
+    @Override
+    public String toString() {
+        return String.format("%d archives, %d deduplicated, %d files, %,d compressed bytes, "
+                        + "%,d uncompressed bytes, inflate %d ms, match %d ms, elapsed %d ms", getArchivesSearched(),
+                getArchivesDeduplicated(), getFilesSearched(), getCompressedBytesRead(), getUncompressedBytesRead(),
+                getInflateMillis(), getMatchMillis(), getElapsedMillis());
+    }
+
+    private static final class ArchiveTiming {
+        final Path archive;
+        final long nanos;
+
+        ArchiveTiming(Path archive, long nanos) {
+            this.archive = archive;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Not thread safe, as any stream
+     */
+    static final class MeteredInputStream extends FilterInputStream {
+        private final LongAdder bytes;
+        private long readNanos;
+
+        private MeteredInputStream(InputStream in, LongAdder bytes) {
+            super(in);
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return Time taken by the reads (and skips) so far
+         */
+        long getReadNanos() {
+            return readNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = in.read();
+            readNanos += System.nanoTime() - start;
+            if (b != -1)
+                bytes.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = in.read(b, off, len);
+            readNanos += System.nanoTime() - start;
+            if (n > 0)
+                bytes.add(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long start = System.nanoTime();
+            long skipped = in.skip(n);
+            readNanos += System.nanoTime() - start;
+            bytes.add(skipped);
+            return skipped;
+        }
+    }
+}
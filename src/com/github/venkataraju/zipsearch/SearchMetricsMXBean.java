@@ -0,0 +1,43 @@
+package com.github.venkataraju.zipsearch;
+
+/**
+ * JMX view of a running search's {@link SearchMetrics}. Public, as JMX
+ * requires
+ */
+public interface SearchMetricsMXBean {
+    long getArchivesSearched();
+
+    /**
+     * Archives whose results were replayed from an identical one, instead of
+     * being searched. Not in {@link #getArchivesSearched()}
+     */
+    long getArchivesDeduplicated();
+
+    long getFilesSearched();
+
+    /**
+     * Read from the archives' files (or from their outer archives, for the
+     * nested ones)
+     */
+    long getCompressedBytesRead();
+
+    long getUncompressedBytesRead();
+
+    /**
+     * Reading and inflating the entries and nested archives
+     */
+    long getInflateMillis();
+
+    /**
+     * Listing the entries and matching their names and contents
+     */
+    long getMatchMillis();
+
+    long getElapsedMillis();
+
+    /**
+     * Slowest on disk archives (nested archives' time included), slowest
+     * first. As "millis ms path"
+     */
+    String[] getSlowestArchives();
+}
@@ -7,4 +7,37 @@ final class Util {
         int dotIndex = fileName.lastIndexOf('.') + 1;
         return (dotIndex == 0) ? Optional.empty() : Optional.of(fileName.substring(dotIndex));
     }
+
+    /**
+     * Allocation free {@link String#indexOf(String)} for any
+     * {@link CharSequence}
+     *
+     * @param lowerCaseStr If true, {@code str} is lower cased (char by char)
+     *                     while comparing. {@code searchStr} should already be in
+     *                     lower case
+     */
+    static int indexOf(CharSequence str, String searchStr, boolean lowerCaseStr) {
+        for (int i = 0, last = str.length() - searchStr.length(); i <= last; i++) {
+            if (regionMatches(str, i, searchStr, lowerCaseStr))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @see #indexOf(CharSequence, String, boolean)
+     */
+    static boolean regionMatches(CharSequence str, int offset, String searchStr, boolean lowerCaseStr) {
+        int len = searchStr.length();
+        if (offset < 0 || (offset + len) > str.length())
+            return false;
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(offset + i);
+            if (lowerCaseStr)
+                c = Character.toLowerCase(c);
+            if (c != searchStr.charAt(i))
+                return false;
+        }
+        return true;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,448 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry point. Doesn't load AWT/Swing, so runs on headless
+ * machines. Each result is written to stdout as soon as it is found, as plain
+ * text or as newline delimited JSON. Errors go to stderr (or stdout as JSON).
+ * <p>
+ * Exit status: {@value #EXIT_FOUND} - Found, {@value #EXIT_NOT_FOUND} - Not
+ * found, {@value #EXIT_USAGE} - Invalid arguments, {@value #EXIT_ERRORS} -
+ * Some paths or archives couldn't be read. {@value #EXIT_FOUND} for --help too
+ */
+final class ZipSearchCli {
+    static final int EXIT_FOUND = 0, EXIT_NOT_FOUND = 1, EXIT_USAGE = 2, EXIT_ERRORS = 3;
+
+    private static final String USAGE = "Usage: ZipSearchCli [options] <file name> <file/folder path>... [options]\n"
+            + "File name: As in the UI. Comma(,) separate to search for many,\n"
+            + "           prefix with glob: or regex: to match the whole path\n"
+            + "Options:\n"
+            + "  -t, --types <extns>         Comma separated types of files to search (default: jar,war,ear,zip)\n"
+            + "  -n, --nested                Search archives within archives\n"
+            + "  -i, --ignore-case           Case insensitive search\n"
+            + "  -c, --containing <text>     Search the contents of the matching files for the text\n"
+            + "  -r, --references <ref>      Search the constant pool of the matching .class files for references to\n"
+            + "                              a type (org.xyz.Abc), member (org.xyz.Abc#name, #name) or string (string:text)\n"
+            + "  -w, --where <conditions>    Only the matching files whose size, csize (compressed), mtime, method or\n"
+            + "                              crc meet the conditions. e.g. size>1m,mtime>=2020-01-31,method=stored\n"
+            + "      --conflicts             Instead of the matching files, report those in more than one archive,\n"
+            + "                              marking the ones differing in CRC/size as conflicts\n"
+            + "  -l, --limit <n>             Stop after n results\n"
+            + "  -q, --exists                Only the exit status, stopping at the first result\n"
+            + "  -1, --first-per-archive     Skip the rest of an archive after its first result\n"
+            + "      --dedup                 Search identical archives (e.g. the same jar in many wars) once\n"
+            + "      --time-budget <secs>    Stop after this long, marking the results partial\n"
+            + "      --checkpoint <file>     Save the progress to the file, and resume from it if there. Deleted once\n"
+            + "                              the search completes\n"
+            + "  -m, --scan-mode <mode>      central_directory (default) or stream\n"
+            + "  -j, --parallelism <n>       No. of worker threads (default: no. of processors)\n"
+            + "      --index <file>          Persistent entry index, created if not there\n"
+            + "      --max-in-memory <mb>    Bigger nested archives are inflated in to temp files (default: 32)\n"
+            + "      --memory-budget <mb>    Max memory for inflated nested archives\n"
+            + "      --temp-dir <dir>        For the inflated nested archives\n"
+            + "      --json                  Newline delimited JSON output\n"
+            + "      --metrics               Prints the throughput and the slowest archives to stderr at the end\n"
+            + "      --jmx                   Exposes the metrics as an MBean while searching\n"
+            + "  -v, --verbose               Prints the archives being searched and errors' details to stderr\n"
+            + "  -h, --help                  Prints this";
+
+    private final PrintWriter out;
+    private final boolean json;
+    private boolean found, errors;
+
+    private ZipSearchCli(PrintWriter out, boolean json) {
+        this.out = out;
+        this.json = json;
+    }
+
+    public static void main(String[] args) {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+                StandardCharsets.UTF_8));
+        System.exit(run(args, out));
+    }
+
+    static int run(String[] args, PrintWriter out) {
+        List<String> searchFileExtns = Arrays.asList("jar", "war", "ear", "zip");
+        boolean searchWithInArchives = false, caseSensitive = true, json = false, conflicts = false;
+        boolean exists = false, firstHitPerArchive = false, printMetrics = false, jmx = false, verbose = false;
+        boolean deduplicate = false;
+        int resultLimit = -1;
+        String containingText = null, reference = null, indexFile = null, tempDir = null, where = null;
+        String checkpointFile = null;
+        long timeBudgetSecs = -1;
+        ZipSearcher.ScanMode scanMode = ZipSearcher.ScanMode.CENTRAL_DIRECTORY;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int maxInMemoryMb = -1;
+        long memoryBudgetMb = -1;
+        List<String> operands = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                // Options may be anywhere, e.g. after the paths, till --
+                if (!arg.startsWith("-") || arg.equals("-")) {
+                    operands.add(arg);
+                    continue;
+                }
+                switch (arg) {
+                    case "-t":
+                    case "--types":
+                        searchFileExtns = split(value(args, ++i, arg));
+                        break;
+                    case "-n":
+                    case "--nested":
+                        searchWithInArchives = true;
+                        break;
+                    case "-i":
+                    case "--ignore-case":
+                        caseSensitive = false;
+                        break;
+                    case "-c":
+                    case "--containing":
+                        containingText = value(args, ++i, arg);
+                        break;
+                    case "-r":
+                    case "--references":
+                        reference = value(args, ++i, arg);
+                        break;
+                    case "-w":
+                    case "--where":
+                        where = value(args, ++i, arg);
+                        break;
+                    case "--conflicts":
+                        conflicts = true;
+                        break;
+                    case "-l":
+                    case "--limit":
+                        resultLimit = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "-q":
+                    case "--exists":
+                        exists = true;
+                        break;
+                    case "-1":
+                    case "--first-per-archive":
+                        firstHitPerArchive = true;
+                        break;
+                    case "--dedup":
+                        deduplicate = true;
+                        break;
+                    case "--time-budget":
+                        timeBudgetSecs = Long.parseLong(value(args, ++i, arg));
+                        break;
+                    case "--checkpoint":
+                        checkpointFile = value(args, ++i, arg);
+                        break;
+                    case "-m":
+                    case "--scan-mode":
+                        scanMode = ZipSearcher.ScanMode.valueOf(value(args, ++i, arg).toUpperCase(Locale.ROOT));
+                        break;
+                    case "-j":
+                    case "--parallelism":
+                        parallelism = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "--index":
+                        indexFile = value(args, ++i, arg);
+                        break;
+                    case "--max-in-memory":
+                        maxInMemoryMb = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "--memory-budget":
+                        memoryBudgetMb = Long.parseLong(value(args, ++i, arg));
+                        break;
+                    case "--temp-dir":
+                        tempDir = value(args, ++i, arg);
+                        break;
+                    case "--json":
+                        json = true;
+                        break;
+                    case "--metrics":
+                        printMetrics = true;
+                        break;
+                    case "--jmx":
+                        jmx = true;
+                        break;
+                    case "-v":
+                    case "--verbose":
+                        verbose = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        System.out.println(USAGE);
+                        return EXIT_FOUND; // i.e. 0, help isn't an error
+                    case "--":
+                        operands.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                        i = args.length;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (operands.size() < 2)
+                throw new IllegalArgumentException("File name and path(s) are required");
+            if (searchFileExtns.isEmpty())
+                throw new IllegalArgumentException("No types of files to search");
+
+            String filePathToSearch = operands.get(0);
+            ZipSearcher zipSearcher = new ZipSearcher(operands.subList(1, operands.size()), searchFileExtns,
+                    searchWithInArchives, filePathToSearch, caseSensitive)
+                    .scanMode(scanMode)
+                    .parallelism(parallelism)
+                    .registerMBean(jmx);
+            Diagnostics diagnostics = verbose ? new Diagnostics(Diagnostics.Level.DEBUG, System.err)
+                    : Diagnostics.getDefault();
+            zipSearcher.diagnostics(diagnostics);
+            List<String> filePathsToSearch = split(filePathToSearch);
+            if (filePathsToSearch.size() > 1 && !filePathToSearch.startsWith(EntryMatcher.GLOB_PREFIX)
+                    && !filePathToSearch.startsWith(EntryMatcher.REGEX_PREFIX))
+                zipSearcher.patterns(filePathsToSearch);
+            if (where != null)
+                zipSearcher.metadataFilter(MetadataFilter.parse(where));
+            if (containingText != null)
+                zipSearcher.contentToSearch(containingText);
+            if (reference != null) {
+                if (containingText != null)
+                    throw new IllegalArgumentException("Can't search both contents and references");
+                zipSearcher.referenceToSearch(reference);
+            }
+            if (exists) {
+                zipSearcher.resultLimit(1);
+            } else if (resultLimit != -1) {
+                zipSearcher.resultLimit(resultLimit);
+            }
+            zipSearcher.firstHitPerArchive(firstHitPerArchive);
+            ConflictReport conflictReport = null;
+            if (conflicts) {
+                if (containingText != null || reference != null)
+                    throw new IllegalArgumentException("Can't report conflicts while searching the contents");
+                if (deduplicate)
+                    throw new IllegalArgumentException("Can't report conflicts while deduplicating");
+                conflictReport = new ConflictReport();
+                zipSearcher.conflictReport(conflictReport);
+            }
+            zipSearcher.deduplicate(deduplicate);
+            if (timeBudgetSecs != -1)
+                zipSearcher.timeBudget(TimeUnit.SECONDS.toMillis(timeBudgetSecs));
+            if (checkpointFile != null)
+                zipSearcher.checkpoint(SearchCheckpoint.load(Paths.get(checkpointFile), searchKey(args),
+                        diagnostics));
+            if (indexFile != null)
+                zipSearcher.index(EntryIndex.load(Paths.get(indexFile), diagnostics));
+            if (maxInMemoryMb != -1 || memoryBudgetMb != -1 || tempDir != null) {
+                int maxInMemorySize = (maxInMemoryMb != -1) ? maxInMemoryMb << 20 : 32 << 20;
+                long memoryBudget = (memoryBudgetMb != -1) ? memoryBudgetMb << 20
+                        : Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4);
+                Path tempDirPath = (tempDir != null) ? Paths.get(tempDir) : null;
+                zipSearcher.nestedArchiveLoader(new NestedArchiveLoader(maxInMemorySize, memoryBudget, tempDirPath));
+            }
+
+            ZipSearchCli cli = new ZipSearchCli(exists ? new PrintWriter(new NullWriter()) : out, json);
+            zipSearcher.resultListener(cli::onResult);
+            zipSearcher.startSearch();
+            if (conflictReport != null)
+                cli.printDuplicates(conflictReport.getDuplicates());
+            if (zipSearcher.isTruncated() && !exists)
+                cli.printTruncated(resultLimit);
+            if (zipSearcher.isTimedOut())
+                cli.printTimedOut(timeBudgetSecs, checkpointFile);
+            if (printMetrics)
+                printMetrics(zipSearcher.getMetrics());
+            return cli.exitStatus(exists);
+        } catch (IllegalArgumentException e) {
+            // Includes NumberFormatException and PatternSyntaxException
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        } finally {
+            out.flush();
+        }
+    }
+
+    private synchronized void onResult(Result result) {
+        if (result.resultType == Result.ResultType.ERR) {
+            errors = true;
+            if (json) {
+                out.println(json(result));
+            } else {
+                System.err.println(result.msg());
+            }
+        } else {
+            found = true;
+            if (json) {
+                out.println(json(result));
+            } else {
+                out.println(result.msg() + ((result.offset != -1) ? " @ " + result.offset : "")
+                        + ((result.pattern != null) ? "  [" + result.pattern + "]" : ""));
+            }
+        }
+        out.flush();
+    }
+
+    private synchronized void printDuplicates(List<ConflictReport.Duplicate> duplicates) {
+        for (ConflictReport.Duplicate duplicate : duplicates) {
+            found = true;
+            if (json) {
+                StringBuilder sb = new StringBuilder("{\"type\":\"duplicate\",\"name\":").append(quote(duplicate.name))
+                        .append(",\"conflict\":").append(duplicate.conflict).append(",\"archives\":[");
+                for (int i = 0; i < duplicate.occurrences.size(); i++) {
+                    ConflictReport.Occurrence occurrence = duplicate.occurrences.get(i);
+                    sb.append((i == 0) ? "" : ",").append("{\"path\":").append(quote(occurrence.archive))
+                            .append(",\"crc\":").append(occurrence.crc).append(",\"size\":").append(occurrence.size)
+                            .append('}');
+                }
+                out.println(sb.append("]}"));
+            } else {
+                out.println((duplicate.conflict ? "CONFLICT  " : "DUPLICATE ") + duplicate.name);
+                for (ConflictReport.Occurrence occurrence : duplicate.occurrences)
+                    out.println(String.format("    %s  crc=%08x size=%d", occurrence.archive, occurrence.crc,
+                            occurrence.size));
+            }
+        }
+        out.flush();
+    }
+
+    private synchronized void printTruncated(int resultLimit) {
+        if (json) {
+            out.println("{\"type\":\"truncated\",\"limit\":" + resultLimit + "}");
+        } else {
+            System.err.println("Stopped after " + resultLimit + " results");
+        }
+        out.flush();
+    }
+
+    private synchronized void printTimedOut(long timeBudgetSecs, String checkpointFile) {
+        if (json) {
+            out.println("{\"type\":\"timedOut\",\"budgetSecs\":" + timeBudgetSecs + ",\"partial\":true}");
+        } else {
+            System.err.println("Partial results: the time budget of " + timeBudgetSecs + " s ran out"
+                    + ((checkpointFile != null) ? ". Run again to resume from " + checkpointFile : ""));
+        }
+        out.flush();
+    }
+
+    /**
+     * The arguments identifying the search, for its checkpoint: all, except
+     * those not changing the results (checkpoint, time budget, parallelism
+     * and diagnostics options)
+     */
+    private static String searchKey(String[] args) {
+        List<String> ignoredWithValue = Arrays.asList("--checkpoint", "--time-budget", "-j", "--parallelism");
+        List<String> ignored = Arrays.asList("--metrics", "--jmx", "-v", "--verbose");
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                key.append(String.join("\0", Arrays.asList(args).subList(i, args.length)));
+                break;
+            }
+            if (ignoredWithValue.contains(arg)) {
+                i++;
+            } else if (!ignored.contains(arg)) {
+                key.append(arg).append('\0');
+            }
+        }
+        return key.toString();
+    }
+
+    private static void printMetrics(SearchMetrics metrics) {
+        System.err.println(metrics);
+        for (String slowestArchive : metrics.getSlowestArchives())
+            System.err.println("    " + slowestArchive);
+    }
+
+    /**
+     * @param exists As with grep -q, found is success even if there were errors
+     */
+    private synchronized int exitStatus(boolean exists) {
+        if (errors && !(exists && found))
+            return EXIT_ERRORS;
+        return found ? EXIT_FOUND : EXIT_NOT_FOUND;
+    }
+
+    private static final class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Value is required for " + option);
+        return args[i];
+    }
+
+    private static List<String> split(String str) {
+        List<String> parts = new ArrayList<>();
+        for (String part : str.split(","))
+            if (!(part = part.trim()).isEmpty())
+                parts.add(part);
+        return parts;
+    }
+
+    /**
+     * @return Result as a JSON object, of type match or error
+     */
+    static String json(Result result) {
+        if (result.resultType == Result.ResultType.ERR)
+            return "{\"type\":\"error\",\"message\":" + quote(result.msg()) + "}";
+
+        StringBuilder sb = new StringBuilder("{\"type\":\"match\",\"path\":").append(quote(result.msg()));
+        if (result.offset != -1)
+            sb.append(",\"offset\":").append(result.offset);
+        if (result.pattern != null)
+            sb.append(",\"pattern\":").append(quote(result.pattern));
+        return sb.append('}').toString();
+    }
+
+    static String quote(String str) {
+        StringBuilder sb = new StringBuilder(str.length() + 2).append('"');
+        for (int i = 0, len = str.length(); i < len; i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
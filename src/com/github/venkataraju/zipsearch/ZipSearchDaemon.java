@@ -0,0 +1,512 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long running search server, so that repeated searches (e.g. from IDE plugins
+ * and scripts) find the archive listings in memory, in a shared
+ * {@link ListingCache} (and optionally an {@link EntryIndex}), and don't pay
+ * for a JVM start. Listens on the loopback address only, over HTTP. Every
+ * request must have the daemon's token, made afresh on each launch and
+ * written to a file only the user can read, in an X-Search-Token header. So
+ * other users' processes, and web pages (which can't set the header without
+ * a preflight), can't search:
+ * <ul>
+ * <li>POST /search?q=&lt;file name&gt;&amp;path=&lt;path&gt;[&amp;path=...]
+ * [&amp;types=jar,war][&amp;nested=true][&amp;ignoreCase=true]
+ * [&amp;containing=text][&amp;references=ref][&amp;where=conditions]
+ * [&amp;limit=n][&amp;firstPerArchive=true][&amp;dedup=true][&amp;budget=millis]
+ * [&amp;mode=stream] - Results are streamed as newline delimited JSON (as
+ * with {@link ZipSearchCli} --json), between a started line (having the
+ * search id) and a done line. While there are no results, an empty line is
+ * written every few seconds, to find out if the client is gone</li>
+ * <li>POST /cancel?id=&lt;id&gt; - Cancels the search. Closing the connection
+ * of the search does the same</li>
+ * <li>GET /status - Running searches and the cached bytes</li>
+ * </ul>
+ * Folders given to --watch are kept listed by an {@link ArchiveWatcher}.
+ * <p>
+ * Searches run concurrently, up to a limit (each has its own workers); others
+ * wait for their turn.
+ */
+final class ZipSearchDaemon {
+    static final int DEFAULT_PORT = 7919;
+
+    private static final String USAGE = "Usage: ZipSearchDaemon [options]\n"
+            + "Options:\n"
+            + "  -p, --port <port>           Loopback port to listen on (default: " + DEFAULT_PORT + ")\n"
+            + "  -s, --max-searches <n>      Max concurrent searches, others wait (default: 4)\n"
+            + "  -j, --parallelism <n>       Worker threads per search (default: no. of processors)\n"
+            + "      --cache <mb>            Memory for the archive listings (default: 1/4 of the max heap)\n"
+            + "      --index <file>          Persistent entry index, created if not there. Saved every minute\n"
+            + "                              and on exit\n"
+            + "      --token-file <file>     Where the token to be sent by the clients (in an X-Search-Token header)\n"
+            + "                              is written (default: ~/.zipsearch/daemon-<port>.token)\n"
+            + "  -w, --watch <folder>        Keeps the listings of the folder's archives (jar,war,ear,zip) up to\n"
+            + "                              date as they change. Can be repeated\n"
+            + "  -h, --help                  Prints this";
+
+    // Results are flushed to the clients this often, instead of per result
+    private static final long FLUSH_INTERVAL_MS = 100;
+    // A closed connection is only found out on writing to it. So if a search
+    // hasn't written for this long, an empty line is written
+    private static final long HEARTBEAT_INTERVAL_MS = 5_000;
+    // The index is shared by the searches (and the watcher), so it's saved by
+    // the daemon this often and on exit, instead of by every search
+    private static final long INDEX_SAVE_INTERVAL_MS = 60_000;
+
+    private static final String TOKEN_HEADER = "X-Search-Token";
+
+    private final ListingCache listingCache;
+    private final EntryIndex index;
+    private final byte[] token = newToken();
+    private final int parallelism;
+    private final Semaphore searchPermits;
+    private final Map<Long, ResultStream> runningSearches = new ConcurrentHashMap<>();
+    private final AtomicLong searchIds = new AtomicLong();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ZipSearchDaemon-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ZipSearchDaemon(ListingCache listingCache, EntryIndex index, int parallelism, int maxSearches) {
+        this.listingCache = listingCache;
+        this.index = index;
+        this.parallelism = parallelism;
+        this.searchPermits = new Semaphore(maxSearches, true);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT, maxSearches = 4, parallelism = Runtime.getRuntime().availableProcessors();
+        long cacheBytes = Runtime.getRuntime().maxMemory() / 4;
+        String indexFile = null, tokenFile = null;
+        List<Path> watchFolders = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-p":
+                    case "--port":
+                        port = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "-s":
+                    case "--max-searches":
+                        maxSearches = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "-j":
+                    case "--parallelism":
+                        parallelism = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "--cache":
+                        cacheBytes = Long.parseLong(value(args, ++i, arg)) << 20;
+                        break;
+                    case "--index":
+                        indexFile = value(args, ++i, arg);
+                        break;
+                    case "--token-file":
+                        tokenFile = value(args, ++i, arg);
+                        break;
+                    case "-w":
+                    case "--watch":
+                        watchFolders.add(Paths.get(value(args, ++i, arg)));
+                        break;
+                    case "-h":
+                    case "--help":
+                        System.out.println(USAGE);
+                        System.exit(0);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (maxSearches < 1 || parallelism < 1)
+                throw new IllegalArgumentException("max searches and parallelism should be at least 1");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(ZipSearchCli.EXIT_USAGE);
+        }
+
+        EntryIndex index = (indexFile != null) ? EntryIndex.load(Paths.get(indexFile), Diagnostics.getDefault()) : null;
+        ListingCache listingCache = new ListingCache(cacheBytes);
+        ZipSearchDaemon daemon = new ZipSearchDaemon(listingCache, index, parallelism, maxSearches);
+        Path tokenPath = (tokenFile != null) ? Paths.get(tokenFile)
+                : Paths.get(System.getProperty("user.home"), ".zipsearch", "daemon-" + port + ".token");
+        daemon.writeToken(tokenPath);
+        HttpServer server = daemon.start(port);
+        if (!watchFolders.isEmpty()) {
+            new ArchiveWatcher(watchFolders, Arrays.asList("jar", "war", "ear", "zip"), listingCache, index,
+                    Diagnostics.getDefault()).start();
+        }
+        System.err.println("Listening on " + server.getAddress() + ", token in " + tokenPath);
+    }
+
+    HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/search", exchange -> handle(exchange, "POST", this::search));
+        server.createContext("/cancel", exchange -> handle(exchange, "POST", this::cancel));
+        server.createContext("/status", exchange -> handle(exchange, "GET", this::status));
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ZipSearchDaemon-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+        if (index != null) {
+            flusher.scheduleWithFixedDelay(this::saveIndex, INDEX_SAVE_INTERVAL_MS, INDEX_SAVE_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::saveIndex, "ZipSearchDaemon-index-saver"));
+        }
+        return server;
+    }
+
+    private void saveIndex() {
+        try {
+            index.save();
+        } catch (IOException | RuntimeException e) {
+            Diagnostics.getDefault().warn("Unable to save the index", e);
+        }
+        Diagnostics.getDefault().flush();
+    }
+
+    private static byte[] newToken() {
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : random)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the token to the file, readable only by the user (where the file
+     * system has POSIX permissions. Else, as per the folder's). Deleted on
+     * exit
+     */
+    void writeToken(Path tokenFile) throws IOException {
+        Path folder = tokenFile.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        Files.deleteIfExists(tokenFile); // Of an earlier launch, maybe with other permissions
+        try {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tokenFile);
+        }
+        Files.write(tokenFile, token);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException e) {
+                // Harmless, as the next launch replaces it
+            }
+        }, "ZipSearchDaemon-token-deleter"));
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, List<String>> params) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try {
+            String token = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+            if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                // i.e. DNS rebinding. A web page must not search the files
+                sendError(exchange, 403, "Forbidden host");
+            } else if (token == null
+                    || !MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII), this.token)) {
+                sendError(exchange, 401, "Missing or wrong " + TOKEN_HEADER);
+            } else if (!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                sendError(exchange, 405, "Use " + method);
+            } else {
+                handler.handle(exchange, params(exchange.getRequestURI().getRawQuery()));
+            }
+        } catch (IllegalArgumentException e) {
+            // Includes NumberFormatException and PatternSyntaxException
+            sendError(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void search(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+        ZipSearcher zipSearcher = newZipSearcher(params);
+
+        long id = searchIds.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.getResponseHeaders().set("X-Search-Id", Long.toString(id));
+        exchange.sendResponseHeaders(200, 0); // Chunked
+        ResultStream out = new ResultStream(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8),
+                zipSearcher);
+        zipSearcher.resultListener(result -> out.write(ZipSearchCli.json(result)));
+        out.write("{\"type\":\"started\",\"id\":" + id + "}");
+        out.flush();
+
+        runningSearches.put(id, out);
+        boolean acquired = false;
+        try {
+            searchPermits.acquire();
+            acquired = true;
+            if (!out.cancelled) {
+                long start = System.nanoTime();
+                zipSearcher.startSearch();
+                String status = zipSearcher.isTruncated() ? "truncated" : zipSearcher.isTimedOut() ? "timedOut"
+                        : out.cancelled ? "cancelled" : "complete";
+                out.write(String.format("{\"type\":\"done\",\"status\":\"%s\",\"archives\":%d,\"files\":%d,"
+                                + "\"millis\":%d}", status, zipSearcher.getNoOfArchivesSearched(),
+                        zipSearcher.getNoOfFilesSearched(), (System.nanoTime() - start) / 1_000_000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (acquired)
+                searchPermits.release();
+            runningSearches.remove(id);
+            out.close();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException If the params are invalid
+     */
+    private ZipSearcher newZipSearcher(Map<String, List<String>> params) {
+        String filePathToSearch = param(params, "q", null);
+        List<String> paths = params.get("path");
+        if (filePathToSearch == null || paths == null)
+            throw new IllegalArgumentException("q (file name) and path are required");
+        List<String> searchFileExtns = split(param(params, "types", "jar,war,ear,zip"));
+        boolean caseSensitive = !Boolean.parseBoolean(param(params, "ignoreCase", "false"));
+
+        ZipSearcher zipSearcher = new ZipSearcher(paths, searchFileExtns,
+                Boolean.parseBoolean(param(params, "nested", "false")), filePathToSearch, caseSensitive)
+                .scanMode(ZipSearcher.ScanMode.valueOf(param(params, "mode", "central_directory")
+                        .toUpperCase(Locale.ROOT)))
+                .parallelism(parallelism)
+                .listingCache(listingCache)
+                .firstHitPerArchive(Boolean.parseBoolean(param(params, "firstPerArchive", "false")))
+                .deduplicate(Boolean.parseBoolean(param(params, "dedup", "false")));
+        String budget = param(params, "budget", null);
+        if (budget != null)
+            zipSearcher.timeBudget(Long.parseLong(budget));
+        if (index != null)
+            zipSearcher.index(index, false);
+        List<String> filePathsToSearch = split(filePathToSearch);
+        if (filePathsToSearch.size() > 1 && !filePathToSearch.startsWith(EntryMatcher.GLOB_PREFIX)
+                && !filePathToSearch.startsWith(EntryMatcher.REGEX_PREFIX))
+            zipSearcher.patterns(filePathsToSearch);
+        String where = param(params, "where", null);
+        if (where != null)
+            zipSearcher.metadataFilter(MetadataFilter.parse(where));
+        String containing = param(params, "containing", null), references = param(params, "references", null);
+        if (containing != null && references != null)
+            throw new IllegalArgumentException("Can't search both contents and references");
+        if (containing != null)
+            zipSearcher.contentToSearch(containing);
+        if (references != null)
+            zipSearcher.referenceToSearch(references);
+        String limit = param(params, "limit", null);
+        if (limit != null)
+            zipSearcher.resultLimit(Integer.parseInt(limit));
+        return zipSearcher;
+    }
+
+    private void cancel(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+        ResultStream search = runningSearches.get(Long.parseLong(param(params, "id", "-1")));
+        if (search == null) {
+            sendError(exchange, 404, "No such running search");
+            return;
+        }
+        search.cancel();
+        send(exchange, 200, "{\"cancelled\":true}");
+    }
+
+    private void status(HttpExchange exchange, Map<String, List<String>> params) throws IOException {
+        StringBuilder sb = new StringBuilder("{\"searches\":[");
+        boolean first = true;
+        for (Map.Entry<Long, ResultStream> search : runningSearches.entrySet()) {
+            ZipSearcher zipSearcher = search.getValue().zipSearcher;
+            sb.append(first ? "" : ",").append("{\"id\":").append(search.getKey())
+                    .append(",\"archives\":").append(zipSearcher.getNoOfArchivesSearched())
+                    .append(",\"files\":").append(zipSearcher.getNoOfFilesSearched()).append('}');
+            first = false;
+        }
+        send(exchange, 200, sb.append("],\"cachedBytes\":").append(listingCache.getCachedBytes()).append('}')
+                .toString());
+    }
+
+    /**
+     * Results of a search. Written by the workers, flushed by the
+     * {@link #flusher}, which also writes the heartbeats. If the client is
+     * gone, the search is cancelled
+     */
+    private final class ResultStream {
+        private final Writer writer;
+        final ZipSearcher zipSearcher;
+        private final ScheduledFuture<?> flushes;
+        private boolean dirty, failed;
+        private long lastFlushNanos = System.nanoTime();
+        volatile boolean cancelled;
+
+        ResultStream(Writer writer, ZipSearcher zipSearcher) {
+            this.writer = writer;
+            this.zipSearcher = zipSearcher;
+            this.flushes = flusher.scheduleWithFixedDelay(this::flushIfDirty, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            cancelled = true;
+            zipSearcher.cancelSearch();
+        }
+
+        synchronized void write(String line) {
+            if (failed)
+                return;
+            try {
+                writer.write(line);
+                writer.write('\n');
+                dirty = true;
+            } catch (IOException e) {
+                fail();
+            }
+        }
+
+        /**
+         * Flushes the results written, or writes a heartbeat if it's time
+         */
+        private synchronized void flushIfDirty() {
+            if (failed)
+                return;
+            if (!dirty && System.nanoTime() - lastFlushNanos >= TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MS))
+                write("");
+            if (dirty) {
+                dirty = false;
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            try {
+                writer.flush();
+                lastFlushNanos = System.nanoTime();
+            } catch (IOException e) {
+                fail();
+            }
+        }
+
+        private void fail() {
+            failed = true;
+            cancel();
+        }
+
+        synchronized void close() {
+            flushes.cancel(false);
+            if (!failed) {
+                flush();
+                failed = true;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Client is gone
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "{\"type\":\"error\",\"message\":" + ZipSearchCli.quote(String.valueOf(message)) + "}");
+    }
+
+    private static boolean isLocalHost(String host) {
+        if (host == null)
+            return true; // HTTP/1.0
+        int portStart = host.lastIndexOf(':');
+        if (portStart != -1 && host.indexOf(']', portStart) == -1)
+            host = host.substring(0, portStart);
+        return host.equalsIgnoreCase("localhost") || host.equals("127.0.0.1") || host.equals("[::1]");
+    }
+
+    private static Map<String, List<String>> params(String rawQuery) {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        if (rawQuery == null)
+            return params;
+        for (String param : rawQuery.split("&")) {
+            if (param.isEmpty())
+                continue;
+            int eq = param.indexOf('=');
+            String name = decode((eq == -1) ? param : param.substring(0, eq));
+            String value = (eq == -1) ? "" : decode(param.substring(eq + 1));
+            params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String decode(String str) {
+        try {
+            return URLDecoder.decode(str, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); // UTF-8 is always there
+        }
+    }
+
+    private static String param(Map<String, List<String>> params, String name, String defaultValue) {
+        List<String> values = params.get(name);
+        return (values == null) ? defaultValue : values.get(values.size() - 1);
+    }
+
+    private static List<String> split(String str) {
+        List<String> parts = new ArrayList<>();
+        for (String part : str.split(","))
+            if (!(part = part.trim()).isEmpty())
+                parts.add(part);
+        return parts;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Value is required for " + option);
+        return args[i];
+    }
+}
@@ -3,81 +3,504 @@ package com.github.venkataraju.zipsearch;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.DirectoryStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Optional;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Searches using a {@link ForkJoinPool}. The archives are found by a
+ * {@link DirectoryWalker}. Each archive and nested archive (when read through
+ * the central directory) is a separate task, so that idle workers can steal
+ * them.
+ */
 final class ZipSearcher {
+    enum ScanMode {
+        /**
+         * Reads every entry sequentially using {@link ZipInputStream}
+         */
+        STREAM,
+        /**
+         * Lists the entries of on disk archives from their central directory.
+         * Only nested archives are opened. Falls back to {@link #STREAM} if the
+         * central directory can't be read
+         */
+        CENTRAL_DIRECTORY;
+    }
+
+    private static final String CLASS_FILE_EXTN = ".class";
+    private static final int NO_LIMIT = -1;
+    private static final int WALK_QUEUE_CAPACITY = 1024;
+    private static final AtomicLong MBEAN_SEQ = new AtomicLong();
+    private static final int MAX_DEDUPLICATED_RESULTS = 10_000;
+
     private final Collection<String> searchPaths;
-    private final SwingAndNioFilePathFilter swingAndNioFilePathFilter;
+    private final NioFilePathFilter filePathFilter;
     private final boolean searchWithInArchives;
-    private final String filePathWithoutExtnToSearch;
-    private final int filePathWithoutExtnLen, filePathWithoutExtnLenPlusOne;
     private final boolean caseSensitiveSearch;
-
-    // May not be the file extension, just because it is after last dot(.).
-    // User may be searching for package org.xyz
-    private final Optional<String> mayBeFileExtn;
+    private EntryMatcher entryMatcher;
 
     private final Queue<Result> results = new ConcurrentLinkedQueue<>();
+    private Consumer<Result> resultListener;
+
+    private ScanMode scanMode = ScanMode.CENTRAL_DIRECTORY;
+    private NestedArchiveLoader nestedArchiveLoader = NestedArchiveLoader.getDefault();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int walkerParallelism = parallelism;
+    private volatile DirectoryWalker walker;
+    private EntryIndex index;
+    private boolean saveIndex;
+    private ListingCache listingCache;
+    private ContentMatcher contentMatcher;
+    private ConstantPoolMatcher referenceMatcher;
+    private ConflictReport conflictReport;
+    private MetadataFilter metadataFilter;
+    private final ThreadLocal<ConstantPoolMatcher.Reader> constantPoolReaders =
+            ThreadLocal.withInitial(ConstantPoolMatcher.Reader::new);
+    private final ThreadLocal<byte[]> contentBuffers = new ThreadLocal<>();
+    private final InflaterPool inflaters = new InflaterPool();
+
+    private int resultLimit = NO_LIMIT;
+    private boolean firstHitPerArchive;
+    private final AtomicInteger noOfHits = new AtomicInteger();
+    private volatile boolean truncated;
+    private long timeBudgetMillis = NO_LIMIT;
+    private volatile boolean timedOut;
+    private SearchCheckpoint checkpoint;
 
     private boolean usedUp;
 
     private volatile boolean cancelled;
     private volatile Path currentSearchingFile = Paths.get("Starting..." /* ok ? */);
-    private volatile int noOfArchivesSearched, noOfFilesSearched;
+    private final SearchMetrics metrics = new SearchMetrics();
+    private boolean registerMBean;
+
+    private boolean deduplicate;
+    // By fingerprint. See searchDeduplicated
+    private final Map<String, Recording> recordings = new ConcurrentHashMap<>();
+    // By prefix, i.e. the recorded archive's path. Lists are copied on change
+    private final Map<String, List<Recording>> activeRecordings = new ConcurrentHashMap<>();
+    private Diagnostics diagnostics = Diagnostics.getDefault();
 
+    /**
+     * @param filePathToSearch See {@link EntryMatcher#parse(String, boolean)}
+     */
     ZipSearcher(Collection<String> searchPaths, Collection<String> searchFileExtns, boolean searchWithInArchives,
                 String filePathToSearch, boolean caseSensitiveSearch) {
         this.searchPaths = searchPaths;
-        this.swingAndNioFilePathFilter = new SwingAndNioFilePathFilter(caseSensitiveSearch, searchFileExtns);
+        this.filePathFilter = new NioFilePathFilter(caseSensitiveSearch, searchFileExtns);
         this.searchWithInArchives = searchWithInArchives;
+        this.entryMatcher = EntryMatcher.parse(filePathToSearch, caseSensitiveSearch);
+        this.caseSensitiveSearch = caseSensitiveSearch;
+    }
 
-        String[] pathAndExtn = getForwardSlashSeparatedPathAndExtn(filePathToSearch);
+    ZipSearcher scanMode(ScanMode scanMode) {
+        checkNotStarted();
+        this.scanMode = scanMode;
+        return this;
+    }
 
-        String tmpFilePathWithoutExtnToSearch = pathAndExtn[0];
-        Optional<String> mayBeFileExtn = Optional.ofNullable(pathAndExtn[1]);
+    ZipSearcher nestedArchiveLoader(NestedArchiveLoader nestedArchiveLoader) {
+        checkNotStarted();
+        this.nestedArchiveLoader = nestedArchiveLoader;
+        return this;
+    }
 
-        if (caseSensitiveSearch) {
-            this.filePathWithoutExtnToSearch = tmpFilePathWithoutExtnToSearch;
-            this.mayBeFileExtn = mayBeFileExtn;
-        } else {
-            this.filePathWithoutExtnToSearch = tmpFilePathWithoutExtnToSearch.toLowerCase();
-            this.mayBeFileExtn = mayBeFileExtn.map(String::toLowerCase);
-        }
+    /**
+     * @param parallelism No. of worker threads
+     */
+    ZipSearcher parallelism(int parallelism) {
+        checkNotStarted();
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
 
-        this.filePathWithoutExtnLen = filePathWithoutExtnToSearch.length();
-        this.filePathWithoutExtnLenPlusOne = filePathWithoutExtnLen + 1;
-        this.caseSensitiveSearch = caseSensitiveSearch;
+    /**
+     * @param walkerParallelism No. of threads listing the folders
+     */
+    ZipSearcher walkerParallelism(int walkerParallelism) {
+        checkNotStarted();
+        if (walkerParallelism < 1)
+            throw new IllegalArgumentException("walkerParallelism: " + walkerParallelism);
+        this.walkerParallelism = walkerParallelism;
+        return this;
     }
 
+    /**
+     * Unchanged archives are searched using the index, others are scanned and
+     * (re)indexed. The index is saved at the end of the search
+     */
+    ZipSearcher index(EntryIndex index) {
+        return index(index, true);
+    }
+
+    /**
+     * @param saveAtEnd false if the index is shared by many searches and saved
+     *            by its owner instead (e.g. periodically)
+     */
+    ZipSearcher index(EntryIndex index, boolean saveAtEnd) {
+        checkNotStarted();
+        this.index = index;
+        this.saveIndex = saveAtEnd;
+        return this;
+    }
+
+    /**
+     * Archives found in the cache are searched without reading them. Others
+     * are added to it. Looked up before the {@link #index(EntryIndex)}
+     */
+    ZipSearcher listingCache(ListingCache listingCache) {
+        checkNotStarted();
+        this.listingCache = listingCache;
+        return this;
+    }
+
+    /**
+     * Searches for all the given file paths (instead of the one given to the
+     * constructor) in a single pass. Each result has the pattern that matched.
+     * Note: Unlike the single file path search, a pattern matches anywhere in
+     * the entry name (/, \ and . being the same)
+     */
+    ZipSearcher patterns(Collection<String> filePathsToSearch) {
+        checkNotStarted();
+        this.entryMatcher = new AhoCorasick(filePathsToSearch, caseSensitiveSearch);
+        return this;
+    }
+
+    /**
+     * Instead of the file path given to the constructor
+     */
+    ZipSearcher entryMatcher(EntryMatcher entryMatcher) {
+        checkNotStarted();
+        this.entryMatcher = entryMatcher;
+        return this;
+    }
+
+    /**
+     * Only the entries (whose name matches) accepted by the filter are
+     * results, or searched further. Checked using the central directory
+     * records or listings, so nothing is read for it. When streaming, the
+     * entries having their CRC and sizes after the data are read, if the
+     * filter is on those (and so not accepted when searching the contents)
+     */
+    ZipSearcher metadataFilter(MetadataFilter metadataFilter) {
+        checkNotStarted();
+        this.metadataFilter = metadataFilter;
+        return this;
+    }
+
+    /**
+     * Searches the contents of the entries whose name matches, for the given
+     * text (as UTF-8 bytes). Each occurrence is a result, with its offset.
+     * Nested archives are not content searched, but searched within (if
+     * opted). Listings (cache/index) are not used, as they don't have the
+     * contents
+     */
+    ZipSearcher contentToSearch(String text) {
+        checkNotStarted();
+        if (referenceMatcher != null || conflictReport != null)
+            throw new IllegalStateException("Already searching for references or conflicts");
+        this.contentMatcher = new ContentMatcher(text, caseSensitiveSearch);
+        return this;
+    }
+
+    /**
+     * Searches the constant pool of the .class entries whose name matches, for
+     * references to the given type, member or string. See
+     * {@link ConstantPoolMatcher}. Each referencing constant is a result, with
+     * the constant as its pattern. As with {@link #contentToSearch(String)},
+     * listings are not used
+     */
+    ZipSearcher referenceToSearch(String reference) {
+        checkNotStarted();
+        if (contentMatcher != null || conflictReport != null)
+            throw new IllegalStateException("Already searching the contents or conflicts");
+        this.referenceMatcher = new ConstantPoolMatcher(reference);
+        return this;
+    }
+
+    /**
+     * Instead of adding results, the entries whose name matches (except
+     * nested archives) are added to the report, which can be read after the
+     * search. Can't be combined with searching the contents
+     */
+    ZipSearcher conflictReport(ConflictReport conflictReport) {
+        checkNotStarted();
+        if (searchesContents())
+            throw new IllegalStateException("Already searching the contents");
+        if (deduplicate)
+            throw new IllegalStateException("Already deduplicating");
+        this.conflictReport = conflictReport;
+        return this;
+    }
+
+    /**
+     * Stops the whole search (all the workers) once this many results are
+     * found, marking it {@link #isTruncated()}. 1 to only know whether it
+     * exists. Errors are not counted
+     */
+    ZipSearcher resultLimit(int resultLimit) {
+        checkNotStarted();
+        if (resultLimit < 1)
+            throw new IllegalArgumentException("resultLimit: " + resultLimit);
+        this.resultLimit = resultLimit;
+        return this;
+    }
+
+    /**
+     * Skips the rest of an archive after its first result. Its nested
+     * archives found till then (including the one which is the first result)
+     * are still searched, as separate archives, whatever the scan mode
+     */
+    ZipSearcher firstHitPerArchive(boolean firstHitPerArchive) {
+        checkNotStarted();
+        this.firstHitPerArchive = firstHitPerArchive;
+        return this;
+    }
+
+    /**
+     * Stops the whole search once it has run for this long, marking it
+     * {@link #isTimedOut()}. Its results are partial
+     */
+    ZipSearcher timeBudget(long timeBudgetMillis) {
+        checkNotStarted();
+        if (timeBudgetMillis < 1)
+            throw new IllegalArgumentException("timeBudgetMillis: " + timeBudgetMillis);
+        this.timeBudgetMillis = timeBudgetMillis;
+        return this;
+    }
+
+    /**
+     * The on disk archives (and their results) in the checkpoint are not
+     * searched again, but their results are replayed. Archives searched
+     * completely are added to it, which is saved every
+     * {@link SearchCheckpoint#SAVE_INTERVAL_MS} and at the end. Deleted if the
+     * search completes (i.e. isn't cancelled, truncated or timed out)
+     */
+    ZipSearcher checkpoint(SearchCheckpoint checkpoint) {
+        checkNotStarted();
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * Identical archives are searched once: their results are recorded, and
+     * replayed (under their own path) for the other copies. On disk archives
+     * are identified by their size and {@link CentralDirectory#hash()}, nested
+     * ones by their CRC and size in the outer archive. Only when reading the
+     * central directories without listings (i.e. when searching the contents,
+     * or without a cache/index). Can't be combined with a conflict report, as
+     * each copy is to be reported
+     */
+    ZipSearcher deduplicate(boolean deduplicate) {
+        checkNotStarted();
+        if (deduplicate && conflictReport != null)
+            throw new IllegalStateException("Already reporting conflicts");
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+    /**
+     * Registers the {@link #getMetrics()} as an MBean (named
+     * com.github.venkataraju.zipsearch:type=Search,name=&lt;no.&gt;) while
+     * searching
+     */
+    ZipSearcher registerMBean(boolean registerMBean) {
+        checkNotStarted();
+        this.registerMBean = registerMBean;
+        return this;
+    }
+
+    /**
+     * Progress (at {@link Diagnostics.Level#DEBUG}) and errors' details are
+     * written to it, instead of the {@link Diagnostics#getDefault()}
+     */
+    ZipSearcher diagnostics(Diagnostics diagnostics) {
+        checkNotStarted();
+        this.diagnostics = diagnostics;
+        return this;
+    }
+
+    /**
+     * Results are passed to the listener as they are found, from the worker
+     * threads, instead of being kept for {@link #getNewResults()}
+     */
+    ZipSearcher resultListener(Consumer<Result> resultListener) {
+        checkNotStarted();
+        this.resultListener = resultListener;
+        return this;
+    }
+
+    /**
+     * Blocks till the search is complete or cancelled
+     */
     void startSearch() {
-        if (usedUp)
-            throw new IllegalStateException("Can't reuse");
+        checkNotStarted();
         usedUp = true;
 
-        for (String searchPath : searchPaths) {
-            Path path = Paths.get(searchPath);
-            if (!swingAndNioFilePathFilter.accept(path)) {
-                System.out.println("Invalid input: " + path.toString());
-                results.add(Result.err("Invalid input: " + path.toString()));
-            } else if (!Files.exists(path)) {
-                System.out.println("Not found: " + path.toString());
-                results.add(Result.err("Not found: " + path.toString()));
-            } else if (!search(path)) {
-                break;
+        List<Path> paths = new ArrayList<>(searchPaths.size());
+        for (String searchPath : searchPaths)
+            paths.add(Paths.get(searchPath));
+        // Once walked completely, the indexed archives not found are dropped
+        List<Path> foundArchives = (index != null) ? new ArrayList<>() : null;
+        AtomicBoolean walkFailed = new AtomicBoolean();
+        DirectoryWalker walker = new DirectoryWalker(paths, filePathFilter, walkerParallelism,
+                WALK_QUEUE_CAPACITY, (msg, e) -> {
+            walkFailed.set(true);
+            diagnostics.log(Diagnostics.Level.WARN, msg,
+                    diagnostics.isEnabled(Diagnostics.Level.DEBUG) ? e : null);
+            addResult(Result.err(msg));
+        });
+        this.walker = walker;
+
+        metrics.started();
+        ObjectName mBeanName = registerMBean ? registerMBean() : null;
+        if (checkpoint != null && checkpoint.size() > 0)
+            diagnostics.log(Diagnostics.Level.INFO, "Resuming: " + checkpoint.size() + " archives done", null);
+        ScheduledExecutorService scheduler = (timeBudgetMillis != NO_LIMIT || checkpoint != null)
+                ? newScheduler() : null;
+
+        // Archives taken from the walker but not yet searched. Bounded, so
+        // that the walker waits when the search is behind
+        int maxArchivesInFlight = parallelism * 2;
+        Semaphore archivesInFlight = new Semaphore(maxArchivesInFlight);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            walker.start();
+            for (DirectoryWalker.Archive archive; !cancelled && (archive = walker.take()) != null; ) {
+                if (foundArchives != null)
+                    foundArchives.add(archive.path);
+                archivesInFlight.acquire();
+                pool.execute(new ArchiveTask(archive, archivesInFlight));
+            }
+            archivesInFlight.acquire(maxArchivesInFlight); // i.e. Wait for all
+            // All given back. If interrupted, the workers' pooled ones are
+            // freed (by GC) with the workers
+            inflaters.close();
+            if (diagnostics.isEnabled(Diagnostics.Level.DEBUG))
+                diagnostics.debug("Inflaters created: " + inflaters.getNoOfInflatersCreated());
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            walker.cancel(); // If not complete
+            pool.shutdownNow();
+            if (scheduler != null)
+                scheduler.shutdownNow();
+            metrics.ended();
+            if (mBeanName != null)
+                unregisterMBean(mBeanName);
+        }
+
+        if (checkpoint != null) {
+            try {
+                // A search stopped at the result limit is complete, as
+                // asked. Nothing to resume
+                if (cancelled && !truncated) {
+                    checkpoint.save();
+                } else {
+                    checkpoint.delete();
+                }
+            } catch (IOException e) {
+                diagnostics.warn("Unable to save the checkpoint", e);
+                addResult(Result.err("Unable to save the checkpoint: " + e.getMessage()));
             }
         }
+
+        if (index != null && !cancelled && !walkFailed.get())
+            index.removeNotFound(paths, foundArchives, filePathFilter);
+        if (index != null && saveIndex) {
+            try {
+                index.save();
+            } catch (IOException e) {
+                diagnostics.warn("Unable to save the index", e);
+                addResult(Result.err("Unable to save the index: " + e.getMessage()));
+            }
+        }
+        diagnostics.flush();
+    }
+
+    /**
+     * For the {@link #timeBudget(long)} and saving the {@link #checkpoint}
+     */
+    private ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ZipSearcher-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        if (timeBudgetMillis != NO_LIMIT) {
+            scheduler.schedule(() -> {
+                timedOut = true;
+                cancelSearch();
+            }, timeBudgetMillis, TimeUnit.MILLISECONDS);
+        }
+        if (checkpoint != null) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    checkpoint.save();
+                } catch (IOException e) {
+                    diagnostics.warn("Unable to save the checkpoint", e);
+                }
+            }, SearchCheckpoint.SAVE_INTERVAL_MS, SearchCheckpoint.SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return null if it can't be registered (it's not needed for the search)
+     */
+    private ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.github.venkataraju.zipsearch:type=Search,name="
+                    + MBEAN_SEQ.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            diagnostics.warn("Unable to register the metrics MBean", e);
+            return null;
+        }
+    }
+
+    private void unregisterMBean(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            diagnostics.warn("Unable to unregister the metrics MBean", e);
+        }
     }
 
     Path getCurrentSearchingFile() {
@@ -85,11 +508,18 @@ final class ZipSearcher {
     }
 
     int getNoOfArchivesSearched() {
-        return noOfArchivesSearched;
+        return (int) metrics.getArchivesSearched();
     }
 
     int getNoOfFilesSearched() {
-        return noOfFilesSearched;
+        return (int) metrics.getFilesSearched();
+    }
+
+    /**
+     * Can be read while searching
+     */
+    SearchMetrics getMetrics() {
+        return metrics;
     }
 
     Collection<Result> getNewResults() {
@@ -101,42 +531,169 @@ final class ZipSearcher {
         return newResults;
     }
 
+    /**
+     * @return true if the search was stopped on reaching the
+     *         {@link #resultLimit(int)}. There may be more results
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return true if the search was stopped on running out of the
+     *         {@link #timeBudget(long)}. The results are partial
+     */
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
     void cancelSearch() {
         cancelled = true;
+        DirectoryWalker walker = this.walker;
+        if (walker != null)
+            walker.cancel();
     }
 
-    private boolean search(Path path) {
-        if (Files.isDirectory(path)) {
-            try (DirectoryStream<Path> ds = Files.newDirectoryStream(path, swingAndNioFilePathFilter)) {
-                for (Path child : ds) {
-                    System.out.println(child.toString());
-                    if (!search(child)) {
-                        return false;
+    private void addResult(Result result) {
+        if (result.container != null && !activeRecordings.isEmpty())
+            record(result);
+        if (resultLimit != NO_LIMIT && result.resultType == Result.ResultType.MSG) {
+            int hits = noOfHits.incrementAndGet();
+            if (hits > resultLimit)
+                return; // Found by another worker before it stopped
+            if (hits == resultLimit) {
+                truncated = true;
+                cancelSearch(); // Including the walk
+            }
+        }
+
+        if (resultListener != null) {
+            resultListener.accept(result);
+        } else {
+            results.add(result);
+        }
+    }
+
+    /**
+     * Adds the result to the recordings of its container and of the archives
+     * it's nested in (i.e. the container's ancestors), not to every recording
+     */
+    private void record(Result result) {
+        String container = result.container;
+        for (int end = container.length(); end > 0; end = container.lastIndexOf(File.separatorChar, end - 1)) {
+            List<Recording> recordings = activeRecordings.get((end == container.length()) ? container
+                    : container.substring(0, end));
+            if (recordings != null) {
+                for (Recording recording : recordings)
+                    recording.add(result);
+            }
+        }
+    }
+
+    private void startRecording(Recording recording) {
+        activeRecordings.merge(recording.prefix, Collections.singletonList(recording), (recordings, added) -> {
+            List<Recording> merged = new ArrayList<>(recordings);
+            merged.addAll(added);
+            return merged;
+        });
+    }
+
+    private void stopRecording(Recording recording) {
+        activeRecordings.computeIfPresent(recording.prefix, (prefix, recordings) -> {
+            List<Recording> remaining = new ArrayList<>(recordings);
+            remaining.remove(recording);
+            return remaining.isEmpty() ? null : remaining;
+        });
+    }
+
+    private void checkNotStarted() {
+        if (usedUp)
+            throw new IllegalStateException("Can't reuse");
+    }
+
+    /**
+     * @param attrs Of the archive, read while finding it
+     */
+    private boolean search(Path path, BasicFileAttributes attrs) {
+        if (scanMode == ScanMode.CENTRAL_DIRECTORY) {
+            boolean useListings = (index != null || listingCache != null) && !searchesContents();
+            String nestedExtnsKey = null;
+            if (useListings) {
+                nestedExtnsKey = EntryIndex.nestedExtnsKey(searchWithInArchives, filePathFilter);
+                ArchiveListing listing = getListing(path, attrs, nestedExtnsKey);
+                if (listing != null) {
+                    long startNanos = System.nanoTime();
+                    try {
+                        return search(listing, path);
+                    } finally {
+                        metrics.addMatchNanos(System.nanoTime() - startNanos);
                     }
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-                results.add(Result.err("Unable to read folder: " + path));
             }
 
-            return true;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                CentralDirectory centralDirectory;
+                try {
+                    centralDirectory = CentralDirectory.read(ArchiveData.of(channel));
+                } catch (ZipException e) {
+                    centralDirectory = null; // Falling back to streaming below
+                }
+                if (centralDirectory != null && deduplicate && !useListings) {
+                    CentralDirectory cd = centralDirectory;
+                    return searchDeduplicated("D:" + attrs.size() + ":" + Long.toHexString(cd.hash()), path,
+                            () -> search(cd, path, null));
+                }
+                if (centralDirectory != null) {
+                    ArchiveListing.Builder listingBuilder = useListings ? new ArchiveListing.Builder() : null;
+                    boolean continueSearch = search(centralDirectory, path, listingBuilder);
+                    if (listingBuilder != null && listingBuilder.isComplete())
+                        putListing(path, attrs, nestedExtnsKey, listingBuilder.build());
+                    return continueSearch;
+                }
+            } catch (IOException e) {
+                diagnostics.warn("Unable to read " + path, e);
+                addResult(Result.err(path.toString(), "IO Exception: " + e.getMessage() + ", while reading " + path));
+                return true;
+            }
         }
 
-        try (InputStream is = Files.newInputStream(path);
-             ZipInputStream zis = new ZipInputStream(is) /* This buffers */) {
+        try (InputStream is = metrics.meter(Files.newInputStream(path), true);
+             ZipInputStream zis = new PooledZipInputStream(is, inflaters) /* This buffers */) {
             if (!search(zis, path)) {
                 return false;
             }
         } catch (IOException e) {
-            e.printStackTrace();
-            results.add(Result.err("IO Exception: " + e.getMessage() + ", while reading " + path));
-        }catch (Exception e){
-            e.printStackTrace();
+            diagnostics.warn("Unable to read " + path, e);
+            addResult(Result.err(path.toString(), "IO Exception: " + e.getMessage() + ", while reading " + path));
+        } catch (Exception e) {
+            diagnostics.log(Diagnostics.Level.ERROR, "Unexpected error while searching " + path, e);
+            // So that it isn't taken as searched completely, e.g. by a recording
+            addResult(Result.err(path.toString(), "Unexpected error while searching " + path + ": " + e));
         }
 
         return true;
     }
 
+    /**
+     * @return null if neither the {@link #listingCache} nor the {@link #index}
+     *         has an up to date listing
+     */
+    private ArchiveListing getListing(Path path, BasicFileAttributes attrs, String nestedExtnsKey) {
+        ArchiveListing listing = null;
+        if (listingCache != null)
+            listing = listingCache.get(path, attrs, nestedExtnsKey);
+        if (listing == null && index != null)
+            listing = index.get(path, attrs, nestedExtnsKey);
+        return listing;
+    }
+
+    private void putListing(Path path, BasicFileAttributes attrs, String nestedExtnsKey, ArchiveListing listing) {
+        if (listingCache != null)
+            listingCache.put(path, attrs, nestedExtnsKey, listing);
+        if (index != null)
+            index.put(path, attrs, nestedExtnsKey, listing);
+    }
+
     /**
      * @return true if search should continue (i.e. Not cancelled). Used in
      * recursion within this method
@@ -144,66 +701,670 @@ final class ZipSearcher {
     private boolean search(ZipInputStream zis, Path filePath) {
         if (cancelled)
             return false;
-        System.out.println(filePath);
+        if (diagnostics.isEnabled(Diagnostics.Level.DEBUG))
+            diagnostics.debug("Searching " + filePath);
         currentSearchingFile = filePath;
 
+        ConflictReport.Recorder conflictRecorder = (conflictReport != null) ? conflictReport.recorder(filePath) : null;
+        // Nested archives and contents are timed by themselves
+        long startNanos = System.nanoTime(), inflateNanos = 0, otherNanos = 0;
+        // Its size is known once it is closed, i.e. by the next getNextEntry()
+        ZipEntry uncounted = null;
         try {
-            for (ZipEntry zipEntry; (zipEntry = zis.getNextEntry()) != null; ) {
+            while (true) {
+                long nanos = System.nanoTime();
+                ZipEntry zipEntry = zis.getNextEntry();
+                inflateNanos += System.nanoTime() - nanos;
+                if (uncounted != null && uncounted.getSize() > 0)
+                    metrics.addUncompressedBytes(uncounted.getSize());
+                if (zipEntry == null)
+                    break;
+                uncounted = zipEntry;
+                if (cancelled)
+                    return false;
+
                 String originalEntryName = zipEntry.getName();
-                String entryName = originalEntryName;
-
-                if (!caseSensitiveSearch)
-                    entryName = entryName.toLowerCase();
-
-                int filePathIndex = entryName.indexOf(filePathWithoutExtnToSearch);
-                char c;
-                // Note: Not checking if it is exactly the extension.
-                // Fine if .(dot) or /(slash) are present.
-                if ((filePathIndex != -1)
-                        && (!mayBeFileExtn.isPresent() || (entryName.startsWith(mayBeFileExtn.get(), filePathIndex + filePathWithoutExtnLenPlusOne) &&
-                        (((c = entryName.charAt(filePathIndex + filePathWithoutExtnLen)) == '.') || c == '/')))) {
-                    results.add(Result.msg(filePath.resolve(originalEntryName.replace('/', File.separatorChar)).toString()));
-                }
-
-                // Note: Ignoring FindBugs warning as this is incremented by only one
-                // thread
-                noOfFilesSearched++;
-
-                Optional<String> extn;
-                if (searchWithInArchives && !zipEntry.isDirectory()
-                        && (extn = Util.getExtension(entryName)).isPresent()
-                        && swingAndNioFilePathFilter.acceptExtn(extn.get())) {
-                    if (!search(new ZipInputStream(zis), filePath.resolve(originalEntryName.replace('/', File.separatorChar)))) {
-                        return false;
+                boolean nestedArchive = isNestedArchive(originalEntryName, zipEntry.isDirectory());
+                boolean nameMatched = matchName(originalEntryName);
+                // The CRC and sizes of an entry having a data descriptor are
+                // known only once it's read. Such an entry is searched first
+                // and filtered after
+                boolean filteredAfter = nameMatched && metadataFilter != null && metadataFilter.needsSizesOrCrc()
+                        && zipEntry.getCrc() == -1;
+                boolean hit = false;
+                if (nameMatched && !(filteredAfter && nestedArchive)) {
+                    nanos = System.nanoTime();
+                    try {
+                        hit = searchEntry(zis, zipEntry, filePath, nestedArchive, filteredAfter, conflictRecorder);
+                    } finally {
+                        otherNanos += System.nanoTime() - nanos;
+                    }
+                    if (searchesContents() && !nestedArchive && !zipEntry.isDirectory())
+                        uncounted = null; // Counted as read
+                }
+                if (cancelled)
+                    return false;
+
+                // Searched even if the entry is the first hit, as it's an
+                // archive of its own (as with the central directory)
+                if (nestedArchive) {
+                    nanos = System.nanoTime();
+                    try {
+                        // Not closed, as that would close this stream
+                        PooledZipInputStream nestedZis = new PooledZipInputStream(zis, inflaters);
+                        try {
+                            if (!search(nestedZis, filePath.resolve(originalEntryName.replace('/', File.separatorChar))))
+                                return false;
+                        } finally {
+                            nestedZis.release();
+                        }
+                    } finally {
+                        otherNanos += System.nanoTime() - nanos;
+                    }
+                    if (nameMatched && filteredAfter) {
+                        // Its own name, once its sizes are known
+                        zis.closeEntry();
+                        hit = acceptMetadata(zipEntry) && onMatch(originalEntryName, filePath);
+                        if (cancelled)
+                            return false;
                     }
                 }
+                if (hit && firstHitPerArchive)
+                    break;
             }
 
-            // Note: Ignoring FindBugs warning as this is incremented by only one
-            // thread
-            noOfArchivesSearched++;
+            metrics.archiveSearched();
         } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println(e.getCause());
+            diagnostics.warn("Unable to read " + filePath, e);
             String zipOrIo = (e instanceof ZipException) ? "Zip" : "IO";
-            results.add(Result.err(zipOrIo + " error occured while processing: " + filePath));
-        }catch(Exception e){
-            e.printStackTrace();
+            addResult(Result.err(filePath.toString(), zipOrIo + " error occured while processing: " + filePath));
+        } catch (Exception e) {
+            diagnostics.log(Diagnostics.Level.ERROR, "Unexpected error while searching " + filePath, e);
+            addResult(Result.err(filePath.toString(), "Unexpected error while searching " + filePath + ": " + e));
+        } finally {
+            if (conflictRecorder != null)
+                conflictRecorder.commit();
+            metrics.addInflateNanos(inflateNanos);
+            metrics.addMatchNanos(System.nanoTime() - startNanos - inflateNanos - otherNanos);
         }
 
         return true;
     }
 
-    private static String[] getForwardSlashSeparatedPathAndExtn(String fileName) {
-        int dotIndex = fileName.lastIndexOf('.');
-        String extn;
-        if ((dotIndex == -1)
-                || ((extn = fileName.substring(dotIndex + 1)).indexOf('/') != -1)
-                || (extn.indexOf('\\') != -1)) { // No file extension available
-            return new String[]{fileName.replaceAll("[/\\\\]+", "/"), null};
+    /**
+     * Same as {@link #search(ZipInputStream, Path)}, but the entries are listed
+     * from the central directory and only the nested archives are opened. The
+     * nested archives are searched as separate tasks, which are joined before
+     * returning (as they read from the same {@link ArchiveData})
+     *
+     * @param listingBuilder If not null, the entries (including nested
+     *                       archives') are added to it
+     */
+    private boolean search(CentralDirectory centralDirectory, Path filePath, ArchiveListing.Builder listingBuilder) {
+        if (cancelled)
+            return false;
+        if (diagnostics.isEnabled(Diagnostics.Level.DEBUG))
+            diagnostics.debug("Searching " + filePath);
+        currentSearchingFile = filePath;
+        metrics.addCompressedBytes(centralDirectory.size());
+
+        List<NestedArchiveTask> nestedTasks = new ArrayList<>();
+        ConflictReport.Recorder conflictRecorder = (conflictReport != null) ? conflictReport.recorder(filePath) : null;
+        // Nested archives are timed by their tasks
+        long startNanos = System.nanoTime(), inflateNanos = 0;
+        try {
+            CentralDirectory.Entry entry = new CentralDirectory.Entry();
+            while (centralDirectory.next(entry)) {
+                if (cancelled) {
+                    if (listingBuilder != null)
+                        listingBuilder.setIncomplete();
+                    return false;
+                }
+
+                boolean nestedArchive = isNestedArchive(entry.name, entry.isDirectory());
+                boolean hit = matchName(entry.name)
+                        && acceptMetadata(entry.size, entry.compressedSize, entry.dosTime, entry.method, entry.crc)
+                        && onMatch(entry.name, filePath);
+                if (hit && searchesEntries()) {
+                    hit = false;
+                    if (nestedArchive || entry.isDirectory()) {
+                        // Only their names are searched
+                    } else if (conflictRecorder != null) {
+                        conflictRecorder.add(entry.name, entry.crc, entry.size);
+                    } else {
+                        try (SearchMetrics.MeteredInputStream is = metrics.meter(centralDirectory.openEntry(entry, inflaters), false)) {
+                            metrics.addCompressedBytes(entry.compressedSize);
+                            try {
+                                hit = searchContent(is, filePath, entry.name);
+                            } finally {
+                                inflateNanos += is.getReadNanos();
+                            }
+                        } catch (IOException e) {
+                            Path entryPath = filePath.resolve(entry.name.toString().replace('/', File.separatorChar));
+                            diagnostics.warn("Unable to read " + entryPath, e);
+                            String zipOrIo = (e instanceof ZipException) ? "Zip" : "IO";
+                            addResult(Result.err(filePath.toString(), zipOrIo + " error occured while processing: "
+                                    + entryPath));
+                        }
+                    }
+                }
+                if (cancelled) {
+                    if (listingBuilder != null)
+                        listingBuilder.setIncomplete();
+                    return false;
+                }
+                int listingIndex = (listingBuilder != null) ? listingBuilder.add(entry) : -1;
+
+                if (nestedArchive) {
+                    Path nestedPath = filePath.resolve(entry.name.toString().replace('/', File.separatorChar));
+                    NestedArchiveTask nestedTask = new NestedArchiveTask(centralDirectory, entry.copy(), nestedPath,
+                            listingIndex);
+                    nestedTask.fork();
+                    nestedTasks.add(nestedTask);
+                }
+
+                if (hit && firstHitPerArchive) {
+                    if (listingBuilder != null)
+                        listingBuilder.setIncomplete();
+                    break;
+                }
+            }
+
+            metrics.archiveSearched();
+        } catch (IOException e) {
+            diagnostics.warn("Unable to read " + filePath, e);
+            String zipOrIo = (e instanceof ZipException) ? "Zip" : "IO";
+            addResult(Result.err(filePath.toString(), zipOrIo + " error occured while processing: " + filePath));
+            if (listingBuilder != null)
+                listingBuilder.setIncomplete();
+        } finally {
+            if (conflictRecorder != null)
+                conflictRecorder.commit();
+            metrics.addInflateNanos(inflateNanos);
+            metrics.addMatchNanos(System.nanoTime() - startNanos - inflateNanos);
+            for (int i = nestedTasks.size() - 1; i >= 0; i--) {
+                NestedArchiveTask nestedTask = nestedTasks.get(i);
+                nestedTask.join();
+                if (listingBuilder != null) {
+                    if (nestedTask.listing != null) {
+                        listingBuilder.setNested(nestedTask.listingIndex, nestedTask.listing);
+                    } else {
+                        listingBuilder.setIncomplete();
+                    }
+                }
+            }
+        }
+
+        return !cancelled;
+    }
+
+    /**
+     * Same as {@link #search(CentralDirectory, Path, ArchiveListing.Builder)},
+     * but using an already made listing
+     */
+    private boolean search(ArchiveListing listing, Path filePath) {
+        if (cancelled)
+            return false;
+        currentSearchingFile = filePath;
+
+        ConflictReport.Recorder conflictRecorder = (conflictReport != null) ? conflictReport.recorder(filePath) : null;
+        try {
+            EntryName name = new EntryName();
+            for (int i = 0, size = listing.size(); i < size; i++) {
+                if (cancelled)
+                    return false;
+
+                listing.name(i, name);
+                boolean isDirectory = name.endsWith('/');
+                boolean nestedArchive = isNestedArchive(name, isDirectory);
+                boolean hit = matchName(name) && acceptMetadata(listing.uncompressedSize(i),
+                        listing.compressedSize(i), listing.dosTime(i), listing.method(i), listing.crc(i))
+                        && onMatch(name, filePath);
+                if (hit && conflictRecorder != null) {
+                    hit = false;
+                    if (!nestedArchive && !isDirectory)
+                        conflictRecorder.add(name, listing.crc(i), listing.uncompressedSize(i));
+                }
+                ArchiveListing nested;
+                if (nestedArchive && (nested = listing.nested(i)) != null) {
+                    if (!search(nested, filePath.resolve(name.toString().replace('/', File.separatorChar))))
+                        return false;
+                }
+                if (hit && firstHitPerArchive)
+                    break;
+            }
+        } finally {
+            if (conflictRecorder != null)
+                conflictRecorder.commit();
+        }
+
+        metrics.archiveSearched();
+        return true;
+    }
+
+    /**
+     * {@link CentralDirectory#STORED} archives are searched in place, using
+     * their central directory. {@link CentralDirectory#DEFLATED} ones are
+     * inflated by the {@link NestedArchiveLoader} first. Others (or if the
+     * central directory can't be read) are streamed, and so not listed
+     */
+    private boolean searchNested(CentralDirectory centralDirectory, CentralDirectory.Entry entry, Path nestedPath,
+                                 ArchiveListing.Builder listingBuilder) throws IOException {
+        if (entry.method == CentralDirectory.STORED) {
+            CentralDirectory nested;
+            try {
+                nested = centralDirectory.nested(entry);
+            } catch (ZipException e) {
+                nested = null; // Falling back to streaming below
+            }
+            if (nested != null)
+                return search(nested, nestedPath, listingBuilder);
+        } else if (entry.method == CentralDirectory.DEFLATED) {
+            long startNanos = System.nanoTime();
+            ArchiveData loaded = nestedArchiveLoader.load(centralDirectory, entry, inflaters);
+            metrics.addInflateNanos(System.nanoTime() - startNanos);
+            metrics.addCompressedBytes(entry.compressedSize);
+            metrics.addUncompressedBytes(entry.size);
+            try (ArchiveData data = loaded) {
+                CentralDirectory nested;
+                try {
+                    nested = CentralDirectory.read(data);
+                } catch (ZipException e) {
+                    nested = null; // Falling back to streaming below
+                }
+                if (nested != null)
+                    return search(nested, nestedPath, listingBuilder);
+            }
+        }
+
+        if (listingBuilder != null)
+            listingBuilder.setIncomplete();
+        try (InputStream is = metrics.meter(centralDirectory.openEntry(entry, inflaters), true);
+             ZipInputStream zis = new PooledZipInputStream(is, inflaters)) {
+            return search(zis, nestedPath);
+        }
+    }
+
+    private interface Scan {
+        /**
+         * @return true if search should continue
+         */
+        boolean run() throws IOException;
+    }
+
+    /**
+     * Scans the archive, unless an identical one (having the same
+     * fingerprint) was scanned completely, whose results are then replayed
+     * under this archive's path. The first one scanning records its results
+     * (those under its path, including its nested archives'). A copy found
+     * while it is being scanned is scanned again, instead of waiting for it,
+     * as the worker could be the one which has to complete it (a join runs
+     * other tasks). Not kept if cancelled or discarded
+     */
+    private boolean searchDeduplicated(String fingerprint, Path filePath, Scan scan) throws IOException {
+        Recording recording = new Recording(filePath.toString(), MAX_DEDUPLICATED_RESULTS);
+        Recording existing = recordings.putIfAbsent(fingerprint, recording);
+        if (existing != null) {
+            if (!existing.complete)
+                return scan.run();
+            if (diagnostics.isEnabled(Diagnostics.Level.DEBUG))
+                diagnostics.debug("Replaying " + existing.prefix + " for " + filePath);
+            metrics.archiveDeduplicated();
+            return replay(existing.results, filePath);
+        }
+
+        boolean continueSearch = false;
+        startRecording(recording);
+        try {
+            continueSearch = scan.run();
+        } finally {
+            stopRecording(recording);
+            if (continueSearch && !cancelled && recording.complete()) {
+                recording.results.trimToSize();
+            } else {
+                recordings.remove(fingerprint, recording); // Another copy may record it
+            }
+        }
+        return continueSearch;
+    }
+
+    /**
+     * @param results Relative to the archive's path, i.e. their containers are
+     *                relative. Consecutive results of a container share it
+     */
+    private boolean replay(List<Result> results, Path filePath) {
+        currentSearchingFile = filePath;
+        String prefix = filePath.toString();
+        String relativeContainer = null, container = null;
+        for (Result result : results) {
+            if (cancelled)
+                return false;
+            if (result.container != relativeContainer) {
+                relativeContainer = result.container;
+                container = prefix + relativeContainer;
+            }
+            addResult(new Result(result.resultType, container, result.text, result.offset, result.pattern));
+        }
+        return !cancelled;
+    }
+
+    /**
+     * Searches the on disk archive, unless it's done as per the
+     * {@link #checkpoint}. If not, it's added to the checkpoint once searched
+     * completely without errors
+     */
+    private void searchArchive(Path path, BasicFileAttributes attrs) {
+        if (checkpoint == null) {
+            search(path, attrs);
+            return;
+        }
+
+        List<Result> results = checkpoint.results(path, attrs);
+        if (results != null) {
+            if (diagnostics.isEnabled(Diagnostics.Level.DEBUG))
+                diagnostics.debug("Done already " + path);
+            replay(results, path);
+            return;
+        }
+
+        Recording recording = new Recording(path.toString(), Integer.MAX_VALUE);
+        boolean continueSearch = false;
+        startRecording(recording);
+        try {
+            continueSearch = search(path, attrs);
+        } finally {
+            stopRecording(recording);
+            if (continueSearch && !cancelled && recording.complete())
+                checkpoint.done(path, attrs, recording.results);
+        }
+    }
+
+    /**
+     * Results of an archive being scanned, with their containers relative to
+     * its path (i.e. the prefix). Discarded on an error in the archive (or
+     * its nested archives), or if there are too many results
+     */
+    private static final class Recording {
+        final int maxResults;
+        final String prefix;
+        // Read only once complete
+        final ArrayList<Result> results = new ArrayList<>();
+        volatile boolean complete;
+        private boolean discarded;
+        // Of the last result, so that the results of a container share it
+        private String container, relativeContainer;
+
+        Recording(String prefix, int maxResults) {
+            this.prefix = prefix;
+            this.maxResults = maxResults;
+        }
+
+        /**
+         * @param result Of the archive, or of an archive nested in it
+         */
+        synchronized void add(Result result) {
+            if (discarded || complete)
+                return; // Complete, but still seen by a worker adding a result
+            // The prefix or under it, as routed by record
+            String container = result.container;
+            if (container != this.container) {
+                this.container = container;
+                relativeContainer = container.substring(prefix.length());
+            }
+            if (result.resultType == Result.ResultType.ERR || results.size() == maxResults) {
+                discard();
+                return;
+            }
+            results.add(new Result(result.resultType, relativeContainer, result.text, result.offset,
+                    result.pattern));
+        }
+
+        private void discard() {
+            discarded = true;
+            results.clear();
+        }
+
+        /**
+         * @return false if discarded
+         */
+        synchronized boolean complete() {
+            if (discarded)
+                return false;
+            complete = true;
+            return true;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class ArchiveTask extends RecursiveAction {
+        private final DirectoryWalker.Archive archive;
+        private final Semaphore archivesInFlight;
+
+        ArchiveTask(DirectoryWalker.Archive archive, Semaphore archivesInFlight) {
+            this.archive = archive;
+            this.archivesInFlight = archivesInFlight;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (!cancelled) {
+                    long startNanos = System.nanoTime();
+                    searchArchive(archive.path, archive.attrs);
+                    metrics.archiveTime(archive.path, System.nanoTime() - startNanos);
+                }
+            } finally {
+                archivesInFlight.release();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class NestedArchiveTask extends RecursiveAction {
+        private final CentralDirectory centralDirectory;
+        private final CentralDirectory.Entry entry;
+        private final Path nestedPath;
+        // -1 if the listing isn't needed
+        final int listingIndex;
+        // Set if the listing is needed and could be made completely
+        ArchiveListing listing;
+
+        NestedArchiveTask(CentralDirectory centralDirectory, CentralDirectory.Entry entry, Path nestedPath,
+                          int listingIndex) {
+            this.centralDirectory = centralDirectory;
+            this.entry = entry;
+            this.nestedPath = nestedPath;
+            this.listingIndex = listingIndex;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled)
+                return;
+            ArchiveListing.Builder listingBuilder = (listingIndex != -1) ? new ArchiveListing.Builder() : null;
+            try {
+                if (deduplicate && listingBuilder == null) {
+                    searchDeduplicated("N:" + entry.size + ":" + Long.toHexString(entry.crc), nestedPath,
+                            () -> searchNested(centralDirectory, entry, nestedPath, null));
+                } else {
+                    searchNested(centralDirectory, entry, nestedPath, listingBuilder);
+                }
+                if (listingBuilder != null && listingBuilder.isComplete() && !cancelled)
+                    listing = listingBuilder.build();
+            } catch (IOException e) {
+                diagnostics.warn("Unable to read " + nestedPath, e);
+                String zipOrIo = (e instanceof ZipException) ? "Zip" : "IO";
+                addResult(Result.err(nestedPath.toString(), zipOrIo + " error occured while processing: "
+                        + nestedPath));
+            } catch (Exception e) {
+                diagnostics.log(Diagnostics.Level.ERROR, "Unexpected error while searching " + nestedPath, e);
+                addResult(Result.err(nestedPath.toString(), "Unexpected error while searching " + nestedPath + ": "
+                        + e));
+            }
+        }
+    }
+
+    /**
+     * Doesn't create any objects
+     */
+    private boolean matchName(CharSequence entryName) {
+        metrics.fileSearched();
+        return entryMatcher.matches(entryName);
+    }
+
+    private boolean acceptMetadata(long size, long compressedSize, long dosTime, int method, long crc) {
+        return metadataFilter == null || metadataFilter.accept(size, compressedSize, dosTime, method, crc);
+    }
+
+    /**
+     * Unknown sizes (-1, i.e. of an entry having a data descriptor not read
+     * yet) are only passed if not conditioned
+     */
+    private boolean acceptMetadata(ZipEntry zipEntry) {
+        if (metadataFilter == null)
+            return true;
+        long dosTime = metadataFilter.hasTimeCondition() ? MetadataFilter.dosTime(zipEntry.getTime()) : 0;
+        return metadataFilter.accept(Math.max(zipEntry.getSize(), 0), Math.max(zipEntry.getCompressedSize(), 0),
+                dosTime, zipEntry.getMethod(), zipEntry.getCrc());
+    }
+
+    /**
+     * Searches a streamed entry whose name matched, as per its metadata,
+     * contents etc. A nested archive's own name only
+     *
+     * @param filteredAfter If the CRC and sizes are needed by the
+     *                      {@link #metadataFilter} but are only known after
+     *                      the data. Then the entry is read first (its
+     *                      content results kept back) and filtered after
+     * @return true if a hit
+     */
+    private boolean searchEntry(ZipInputStream zis, ZipEntry zipEntry, Path filePath, boolean nestedArchive,
+                                boolean filteredAfter, ConflictReport.Recorder conflictRecorder) throws IOException {
+        String entryName = zipEntry.getName();
+        if (!filteredAfter)
+            return acceptMetadata(zipEntry) && onMatch(entryName, filePath) && searchEntryFurther(zis, zipEntry,
+                    filePath, nestedArchive, conflictRecorder, this::addResult);
+
+        if (!searchesEntries() || nestedArchive || zipEntry.isDirectory() || conflictRecorder != null) {
+            zis.closeEntry();
+            return acceptMetadata(zipEntry) && onMatch(entryName, filePath) && searchEntryFurther(zis, zipEntry,
+                    filePath, nestedArchive, conflictRecorder, this::addResult);
+        }
+
+        if (!onMatch(entryName, filePath))
+            return false;
+        List<Result> keptBack = new ArrayList<>();
+        boolean hit = searchEntryFurther(zis, zipEntry, filePath, false, null, keptBack::add);
+        zis.closeEntry();
+        if (!acceptMetadata(zipEntry))
+            return false;
+        for (Result result : keptBack)
+            addResult(result);
+        return hit;
+    }
+
+    /**
+     * For an entry which is a hit by its name (and metadata)
+     *
+     * @return true if a hit, after searching the contents or recording the
+     *         conflicts if {@link #searchesEntries()}
+     */
+    private boolean searchEntryFurther(ZipInputStream zis, ZipEntry zipEntry, Path filePath, boolean nestedArchive,
+                                       ConflictReport.Recorder conflictRecorder, Consumer<Result> results)
+            throws IOException {
+        if (!searchesEntries())
+            return true;
+        if (nestedArchive || zipEntry.isDirectory())
+            return false; // Only their names are searched
+        if (conflictRecorder != null) {
+            if (zipEntry.getCrc() == -1)
+                zis.closeEntry(); // CRC and size are in the data descriptor, after the data
+            conflictRecorder.add(zipEntry.getName(), zipEntry.getCrc(), zipEntry.getSize());
+            return false;
+        }
+        return searchContent(metrics.meter(zis, false), filePath, zipEntry.getName(), results);
+    }
+
+    /**
+     * Called for an entry whose name (and metadata) matched. Adds a result if
+     * not {@link #searchesEntries()}
+     *
+     * @return true if a hit (and so, if {@link #searchesEntries()}, the
+     *         contents should be searched, or the entry added to the
+     *         {@link #conflictReport})
+     */
+    private boolean onMatch(CharSequence entryName, Path filePath) {
+        if (referenceMatcher != null)
+            return Util.regionMatches(entryName, entryName.length() - CLASS_FILE_EXTN.length(), CLASS_FILE_EXTN, false);
+        if (searchesEntries())
+            return true;
+
+        // The path's String is made once (and kept) by the path
+        String container = filePath.toString(), name = entryName.toString();
+        String[] patterns = entryMatcher.matchedPatterns(entryName);
+        if (patterns == null) {
+            addResult(Result.match(container, name, null));
         } else {
-            return new String[]{fileName.substring(0, dotIndex).replaceAll("[./\\\\]+", "/"),
-                    fileName.substring(dotIndex + 1)};
+            for (String pattern : patterns)
+                addResult(Result.match(container, name, pattern));
         }
+        return true;
+    }
+
+    private boolean searchesContents() {
+        return contentMatcher != null || referenceMatcher != null;
+    }
+
+    /**
+     * @return true if the entries whose name matches are further searched
+     *         (or recorded), instead of being results themselves
+     */
+    private boolean searchesEntries() {
+        return searchesContents() || conflictReport != null;
+    }
+
+    /**
+     * Stops early if cancelled
+     *
+     * @param is        Contents of the entry. Not closed
+     * @param entryName Not kept
+     * @return true if found
+     */
+    private boolean searchContent(InputStream is, Path filePath, CharSequence entryName) throws IOException {
+        return searchContent(is, filePath, entryName, this::addResult);
+    }
+
+    /**
+     * @param results Where the results go, instead of {@link #addResult}
+     */
+    private boolean searchContent(InputStream is, Path filePath, CharSequence entryName, Consumer<Result> results)
+            throws IOException {
+        String container = filePath.toString(), name = entryName.toString();
+        boolean[] found = {false};
+        if (referenceMatcher != null) {
+            constantPoolReaders.get().search(referenceMatcher, is, constant -> {
+                found[0] = true;
+                results.accept(Result.match(container, name, constant));
+                return !cancelled && !firstHitPerArchive;
+            });
+            return found[0];
+        }
+
+        byte[] buf = contentBuffers.get();
+        if (buf == null) {
+            buf = new byte[Math.max(64 << 10, contentMatcher.minBufferSize())];
+            contentBuffers.set(buf);
+        }
+
+        contentMatcher.search(is, buf, offset -> {
+            found[0] = true;
+            results.accept(Result.contentMatch(container, name, offset, null));
+            return !cancelled && !firstHitPerArchive;
+        });
+        return found[0];
+    }
+
+    private boolean isNestedArchive(CharSequence entryName, boolean isDirectory) {
+        return searchWithInArchives && !isDirectory && filePathFilter.acceptExtnOf(entryName);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.check;
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * {@link AhoCorasick} finds the same patterns as searching for each one
+ * separately
+ */
+final class AhoCorasickTest {
+    private static final String CHARS = "abAB./\\";
+
+    static void run() {
+        Random random = new Random(42);
+        for (int round = 0; round < 1000; round++) {
+            List<String> patterns = new ArrayList<>();
+            for (int i = 0, n = 1 + random.nextInt(10); i < n; i++)
+                patterns.add(randomString(random, 1 + random.nextInt(5)));
+            boolean caseSensitive = random.nextBoolean();
+            AhoCorasick automaton = new AhoCorasick(patterns, caseSensitive);
+            for (int i = 0; i < 20; i++) {
+                String text = randomString(random, random.nextInt(30));
+                BitSet expected = new BitSet();
+                Set<String> found = new HashSet<>();
+                for (int p = 0; p < patterns.size(); p++) {
+                    String pattern = fold(patterns.get(p), caseSensitive);
+                    // Duplicates (once folded) are reported once, as the first of them
+                    if (fold(text, caseSensitive).contains(pattern) && found.add(pattern))
+                        expected.set(p);
+                }
+                String what = patterns + " in " + text + " (case sensitive: " + caseSensitive + ")";
+                checkEquals(expected, automaton.allMatches(text), what);
+                checkEquals(!expected.isEmpty(), automaton.matches(text), what);
+                int first = automaton.firstMatch(text);
+                check((first == -1) ? expected.isEmpty() : expected.get(first), what);
+            }
+        }
+
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("org.foo.Bar.class", "Baz", "foo/baz"), false);
+        checkEquals(Arrays.asList("org.foo.Bar.class"), Arrays.asList(automaton.matchedPatterns("org/foo/Bar.class")),
+                "Dots match separators");
+        checkEquals(Arrays.asList("Baz", "foo/baz"), Arrays.asList(automaton.matchedPatterns("org\\foo\\BAZ.class")),
+                "Matched patterns");
+        checkEquals(Collections.emptyList(), Arrays.asList(automaton.matchedPatterns("org/foo/Ba.class")), "None");
+        try {
+            new AhoCorasick(Arrays.asList("a", ""), true);
+            throw new AssertionError("Empty pattern accepted");
+        } catch (IllegalArgumentException expected) {
+            // Fine
+        }
+    }
+
+    /**
+     * As by the automaton: separators and dots are all /
+     */
+    private static String fold(String str, boolean caseSensitive) {
+        String folded = str.replace('.', '/').replace('\\', '/');
+        return caseSensitive ? folded : folded.toLowerCase();
+    }
+
+    private static String randomString(Random random, int len) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++)
+            sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.check;
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * {@link ArchiveListing}s made from {@link CentralDirectory}s have the
+ * entries' metadata, and read the same from a copy of their buffer (as from
+ * an {@link EntryIndex} file)
+ */
+final class ArchiveListingTest {
+    static void run() throws Exception {
+        Map<String, byte[]> inner = new LinkedHashMap<>();
+        inner.put("org/foo/Bar.class", "class bytes".getBytes(StandardCharsets.UTF_8));
+        inner.put("org/foo/\u00dcn\u00efc\u00f6d\u00e9.txt", new byte[1000]);
+        inner.put("empty/", new byte[0]);
+        Map<String, byte[]> outer = new LinkedHashMap<>();
+        outer.put("lib/inner.jar", Tests.zip(inner, true));
+        outer.put("lib/other.jar", Tests.zip(inner, false));
+        outer.put("index.html", "<html/>".getBytes(StandardCharsets.UTF_8));
+
+        for (boolean stored : new boolean[] {true, false}) {
+            byte[] zip = Tests.zip(outer, stored);
+            ArchiveListing listing = list(zip);
+            checkListing(outer, stored, listing);
+            checkListing(inner, true, listing.nested(0));
+            checkListing(inner, false, listing.nested(1));
+            check(listing.nested(2) == null, "Not nested");
+
+            // As in an index file, after other bytes
+            ByteBuffer file = ByteBuffer.allocate(7 + listing.byteSize()).order(ByteOrder.LITTLE_ENDIAN);
+            file.position(7);
+            file.put(listing.buffer());
+            file.position(7);
+            checkSame(listing, new ArchiveListing(file));
+        }
+
+        // Zip64: more than 0xFFFF entries
+        Map<String, byte[]> many = new LinkedHashMap<>();
+        for (int i = 0; i < 70_000; i++)
+            many.put("p" + (i % 100) + "/C" + i + ".class", new byte[0]);
+        checkListing(many, false, list(Tests.zip(many, false)));
+    }
+
+    /**
+     * Nested archives (*.jar) are listed too
+     */
+    static ArchiveListing list(byte[] zip) throws IOException {
+        Map<String, byte[]> contents = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry entry; (entry = zis.getNextEntry()) != null; ) {
+                if (entry.getName().endsWith(".jar"))
+                    contents.put(entry.getName(), Tests.readAllBytes(zis));
+            }
+        }
+
+        CentralDirectory centralDirectory = CentralDirectory.read(ArchiveData.of(ByteBuffer.wrap(zip)));
+        ArchiveListing.Builder builder = new ArchiveListing.Builder();
+        CentralDirectory.Entry entry = new CentralDirectory.Entry();
+        while (centralDirectory.next(entry)) {
+            int index = builder.add(entry);
+            byte[] nested = contents.get(entry.name.toString());
+            if (nested != null)
+                builder.setNested(index, list(nested));
+        }
+        return builder.build();
+    }
+
+    private static void checkListing(Map<String, byte[]> entries, boolean stored, ArchiveListing listing) {
+        checkEquals(entries.size(), listing.size(), "Entries");
+        EntryName name = new EntryName();
+        int i = 0;
+        for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+            listing.name(i, name);
+            checkEquals(e.getKey(), name.toString(), "Name");
+            CRC32 crc = new CRC32();
+            crc.update(e.getValue());
+            checkEquals(crc.getValue(), listing.crc(i), "CRC of " + name);
+            checkEquals((long) e.getValue().length, listing.uncompressedSize(i), "Size of " + name);
+            checkEquals(stored ? CentralDirectory.STORED : CentralDirectory.DEFLATED, listing.method(i),
+                    "Method of " + name);
+            if (stored)
+                checkEquals(listing.uncompressedSize(i), listing.compressedSize(i), "Compressed size of " + name);
+            check(listing.dosTime(i) != 0, "Time of " + name);
+            i++;
+        }
+    }
+
+    static void checkSame(ArchiveListing expected, ArchiveListing actual) {
+        checkEquals(expected.size(), actual.size(), "Entries");
+        checkEquals(expected.byteSize(), actual.byteSize(), "Byte size");
+        EntryName expectedName = new EntryName(), actualName = new EntryName();
+        for (int i = 0; i < expected.size(); i++) {
+            expected.name(i, expectedName);
+            actual.name(i, actualName);
+            checkEquals(expectedName.toString(), actualName.toString(), "Name");
+            checkEquals(expected.method(i), actual.method(i), "Method");
+            checkEquals(expected.crc(i), actual.crc(i), "CRC");
+            checkEquals(expected.dosTime(i), actual.dosTime(i), "Time");
+            checkEquals(expected.uncompressedSize(i), actual.uncompressedSize(i), "Size");
+            checkEquals(expected.compressedSize(i), actual.compressedSize(i), "Compressed size");
+            ArchiveListing expectedNested = expected.nested(i), actualNested = actual.nested(i);
+            check((expectedNested == null) == (actualNested == null), "Nested listing of " + expectedName);
+            if (expectedNested != null)
+                checkSame(expectedNested, actualNested);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.check;
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * References found by the {@link ConstantPoolMatcher} in the class file of
+ * {@link Fixture}, as compiled
+ */
+final class ConstantPoolMatcherTest {
+    @SuppressWarnings("unused")
+    private static final class Fixture {
+        private final long big = System.nanoTime() + 1234567890123L; // Takes two constant pool slots
+        private final double ratio = 0.123456789;
+
+        Adler32[][] checksums() {
+            return new Adler32[2][2]; // A class constant of the array type
+        }
+
+        long crc(byte[] bytes) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return crc.getValue();
+        }
+
+        void print(Runnable runnable) {
+            runnable.run();
+            System.out.println("Some needle text");
+        }
+    }
+
+    static void run() throws Exception {
+        byte[] classFile;
+        try (InputStream is = Fixture.class.getResourceAsStream("ConstantPoolMatcherTest$Fixture.class")) {
+            classFile = Tests.readAllBytes(is);
+        }
+        ConstantPoolMatcher.Reader reader = new ConstantPoolMatcher.Reader();
+
+        checkEquals(Arrays.asList("Class java/util/zip/CRC32"), search(reader, "java.util.zip.CRC32", classFile),
+                "Type");
+        checkEquals(Arrays.asList("Class [[Ljava/util/zip/Adler32;"),
+                search(reader, "java.util.zip.Adler32", classFile), "Array type");
+        // Owner of println and in the descriptor of System.out
+        checkEquals(Arrays.asList("Class java/io/PrintStream", "NameAndType out:Ljava/io/PrintStream;"),
+                search(reader, "java.io.PrintStream", classFile), "Type in a descriptor");
+        checkEquals(Arrays.asList("Methodref java/util/zip/CRC32.update:([B)V"),
+                search(reader, "java.util.zip.CRC32#update", classFile), "Method");
+        checkEquals(Arrays.asList("Methodref java/util/zip/CRC32.update:([B)V"),
+                search(reader, "#update", classFile), "Method of any type");
+        checkEquals(Arrays.asList("InterfaceMethodref java/lang/Runnable.run:()V"),
+                search(reader, "java.lang.Runnable#run", classFile), "Interface method");
+        checkEquals(Arrays.asList("Fieldref java/lang/System.out:Ljava/io/PrintStream;"),
+                search(reader, "java.lang.System#out", classFile), "Field");
+        checkEquals(Arrays.asList("String Some needle text"), search(reader, "string:needle", classFile), "String");
+        checkEquals(Collections.emptyList(), search(reader, "string:Needle", classFile), "Case sensitive");
+        checkEquals(Collections.emptyList(), search(reader, "java.util.zip.CRC", classFile), "Whole name");
+        checkEquals(Collections.emptyList(),
+                search(reader, "com.github.venkataraju.zipsearch.ConstantPoolMatcherTest$Fixture", classFile),
+                "Own name");
+
+        checkEquals(Collections.emptyList(), search(reader, "java.util.zip.CRC32",
+                "Not a class file".getBytes(StandardCharsets.UTF_8)), "Not a class file");
+        try {
+            search(reader, "java.util.zip.CRC32", Arrays.copyOf(classFile, 40));
+            throw new AssertionError("Truncated class file read");
+        } catch (IOException expected) {
+            // Fine
+        }
+        // Reader is reusable after a failure
+        check(!search(reader, "#update", classFile).isEmpty(), "Reused");
+    }
+
+    private static List<String> search(ConstantPoolMatcher.Reader reader, String reference, byte[] classFile)
+            throws IOException {
+        List<String> constants = new ArrayList<>();
+        reader.search(new ConstantPoolMatcher(reference), new ByteArrayInputStream(classFile), constants::add);
+        Collections.sort(constants);
+        return constants;
+    }
+}
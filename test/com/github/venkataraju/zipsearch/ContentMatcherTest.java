@@ -0,0 +1,109 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link ContentMatcher} finds the same offsets as a naive search, whatever
+ * the buffer size and however the stream's reads are split
+ */
+final class ContentMatcherTest {
+    static void run() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            // Few distinct letters, so that there are overlapping and partial matches
+            byte[] pattern = randomBytes(random, 1 + random.nextInt(6), 3);
+            byte[] data = randomBytes(random, random.nextInt(2000), 3);
+            boolean caseSensitive = random.nextBoolean();
+            ContentMatcher matcher = new ContentMatcher(new String(pattern, StandardCharsets.UTF_8), caseSensitive);
+            byte[] buf = new byte[matcher.minBufferSize() + random.nextInt(50)];
+
+            checkEquals(naiveSearch(data, pattern, caseSensitive),
+                    search(matcher, new ChunkedInputStream(data, random), buf, Integer.MAX_VALUE),
+                    "Matches of " + new String(pattern, StandardCharsets.UTF_8) + " (case sensitive: "
+                            + caseSensitive + ")");
+        }
+
+        byte[] text = "xx Needle NEEDLE needle".getBytes(StandardCharsets.UTF_8);
+        checkEquals(offsets(10), search(new ContentMatcher("NEEDLE", true), new ByteArrayInputStream(text),
+                new byte[12], Integer.MAX_VALUE), "Case sensitive");
+        checkEquals(offsets(3, 10, 17), search(new ContentMatcher("needle", false), new ByteArrayInputStream(text),
+                new byte[12], Integer.MAX_VALUE), "Case insensitive");
+        checkEquals(offsets(3), search(new ContentMatcher("needle", false), new ByteArrayInputStream(text),
+                new byte[12], 1), "Stopped by the listener");
+        // Not ASCII: compared as UTF-8 bytes, never folded
+        byte[] utf8 = "a\u00e9b \u00c9B \u00e9B".getBytes(StandardCharsets.UTF_8);
+        checkEquals(offsets(1, 9), search(new ContentMatcher("\u00e9b", false), new ByteArrayInputStream(utf8),
+                new byte[6], Integer.MAX_VALUE), "Not ASCII");
+    }
+
+    /**
+     * @param maxMatches Listener stops the search after these many
+     */
+    private static List<Long> search(ContentMatcher matcher, InputStream is, byte[] buf, int maxMatches)
+            throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        matcher.search(is, buf, offset -> {
+            offsets.add(offset);
+            return offsets.size() < maxMatches;
+        });
+        return offsets;
+    }
+
+    private static List<Long> naiveSearch(byte[] data, byte[] pattern, boolean caseSensitive) {
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && fold(data[i + j], caseSensitive) == fold(pattern[j], caseSensitive))
+                j++;
+            if (j == pattern.length)
+                offsets.add((long) i);
+        }
+        return offsets;
+    }
+
+    private static byte fold(byte b, boolean caseSensitive) {
+        return (!caseSensitive && b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+
+    private static byte[] randomBytes(Random random, int len, int noOfLetters) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            char c = (char) ('a' + random.nextInt(noOfLetters));
+            bytes[i] = (byte) (random.nextBoolean() ? c : Character.toUpperCase(c));
+        }
+        return bytes;
+    }
+
+    private static List<Long> offsets(long... offsets) {
+        List<Long> list = new ArrayList<>();
+        for (long offset : offsets)
+            list.add(offset);
+        return list;
+    }
+
+    /**
+     * Returns fewer bytes than asked for, as inflating streams do
+     */
+    private static final class ChunkedInputStream extends FilterInputStream {
+        private final Random random;
+
+        ChunkedInputStream(byte[] data, Random random) {
+            super(new ByteArrayInputStream(data));
+            this.random = random;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.check;
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * {@link EntryIndex} files read back the listings saved, and the listings
+ * are only used while the archive and the nested extensions are the same
+ */
+final class EntryIndexTest {
+    static void run() throws Exception {
+        Path dir = Files.createTempDirectory("zipsearch-index");
+        try {
+            run(dir);
+        } finally {
+            Tests.deleteRecursively(dir);
+        }
+    }
+
+    private static void run(Path dir) throws Exception {
+        Map<String, byte[]> inner = new LinkedHashMap<>();
+        inner.put("org/foo/Bar.class", "class bytes".getBytes(StandardCharsets.UTF_8));
+        Map<String, byte[]> outer = new LinkedHashMap<>();
+        outer.put("lib/inner.jar", Tests.zip(inner, true));
+        outer.put("index.html", new byte[100]);
+        byte[] zip = Tests.zip(outer, false);
+        ArchiveListing listing = ArchiveListingTest.list(zip);
+
+        Path a = Files.write(Files.createDirectories(dir.resolve("libs")).resolve("a.jar"), zip);
+        Path b = Files.write(dir.resolve("libs/b.jar"), zip);
+        Path c = Files.write(dir.resolve("c.jar"), zip);
+        Path indexFile = dir.resolve("entries.idx");
+        Diagnostics diagnostics = new Diagnostics(Diagnostics.Level.OFF, System.err);
+
+        String key = EntryIndex.nestedExtnsKey(true, new NioFilePathFilter(true, Arrays.asList("jar", "war")));
+        EntryIndex index = EntryIndex.load(indexFile, diagnostics);
+        check(index.get(a, attrs(a), key) == null, "Empty when new");
+        for (Path archive : Arrays.asList(a, b, c))
+            index.put(archive, attrs(archive), key, listing);
+        index.save();
+
+        index = EntryIndex.load(indexFile, diagnostics);
+        for (Path archive : Arrays.asList(a, b, c))
+            ArchiveListingTest.checkSame(listing, index.get(archive, attrs(archive), key));
+        check(index.get(a, attrs(a), "") != null, "Used when not searching within archives");
+        check(index.get(a, attrs(a), "S:jar") == null, "Not used for other nested extensions");
+        String insensitiveKey = EntryIndex.nestedExtnsKey(true,
+                new NioFilePathFilter(false, Arrays.asList("JAR", "war")));
+        check(EntryIndex.isUsable(insensitiveKey, key), "Case insensitive listing for a case sensitive search");
+        check(!EntryIndex.isUsable(key, insensitiveKey), "Case sensitive listing for a case insensitive search");
+
+        Files.setLastModifiedTime(b, FileTime.fromMillis(attrs(b).lastModifiedTime().toMillis() - 60_000));
+        check(index.get(b, attrs(b), key) == null, "Not used once modified");
+
+        // Of a walk of libs/, which found only a.jar
+        index.removeNotFound(Collections.singletonList(dir.resolve("libs")), Collections.singletonList(a),
+                new NioFilePathFilter(true, Collections.singletonList("jar")));
+        index.remove(c);
+        index.save();
+        index = EntryIndex.load(indexFile, diagnostics);
+        check(index.get(a, attrs(a), key) != null, "Found by the walk");
+        // Back to the time it was indexed with
+        Files.setLastModifiedTime(b, FileTime.fromMillis(attrs(b).lastModifiedTime().toMillis() + 60_000));
+        check(index.get(b, attrs(b), key) == null, "Not found by the walk");
+        check(index.get(c, attrs(c), key) == null, "Removed");
+
+        index.removeUnder(dir);
+        index.save();
+        check(EntryIndex.load(indexFile, diagnostics).get(a, attrs(a), key) == null, "Removed under the folder");
+
+        // Corrupt: started over, with a warning
+        Files.write(indexFile, Arrays.copyOf(Files.readAllBytes(indexFile), 5));
+        ByteArrayOutputStream warnings = new ByteArrayOutputStream();
+        Diagnostics warnDiagnostics = new Diagnostics(Diagnostics.Level.WARN, new PrintStream(warnings, true));
+        check(EntryIndex.load(indexFile, warnDiagnostics).get(a, attrs(a), key) == null, "Empty when corrupt");
+        warnDiagnostics.flush();
+        check(warnings.toString().contains("Unable to read the index"), "Warned: " + warnings);
+        try (Stream<Path> files = Files.list(dir)) {
+            checkEquals(0L, files.filter(p -> p.toString().endsWith(".tmp")).count(), "Temp files left");
+        }
+    }
+
+    private static BasicFileAttributes attrs(Path path) throws Exception {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Entry names matched by the {@link EntryMatcher} queries: globs (as
+ * translated by {@link EntryMatcher#globToRegex(String)}), regexes and the
+ * original substring search
+ */
+final class EntryMatcherTest {
+    // query, entry name, matches (case sensitive), matches (case insensitive)
+    private static final Object[][] CASES = {
+            {"glob:*.class", "Bar.class", true, true},
+            {"glob:*.class", "org/Bar.class", false, false},
+            {"glob:**.class", "org/foo/Bar.class", true, true},
+            {"glob:**/Bar.class", "Bar.class", true, true},
+            {"glob:**/Bar.class", "org/foo/Bar.class", true, true},
+            {"glob:**/Bar.class", "org/foo/XBar.class", false, false},
+            {"glob:org/**/impl/*Service.class", "org/a/b/impl/FooService.class", true, true},
+            {"glob:org/**/impl/*Service.class", "org/impl/FooService.class", true, true},
+            {"glob:org/**/impl/*Service.class", "org/a/impl/sub/FooService.class", false, false},
+            {"glob:org/?ar.class", "org/Bar.class", true, true},
+            {"glob:org?Bar.class", "org/Bar.class", false, false},
+            {"glob:org/[BC]ar.class", "org/Car.class", true, true},
+            {"glob:org/[BC]ar.class", "org/bar.class", false, true},
+            {"glob:org/[!BC]ar.class", "org/Dar.class", true, true},
+            {"glob:org/[!BC]ar.class", "org/Bar.class", false, false},
+            {"glob:org/[a-c]ar.class", "org/bar.class", true, true},
+            {"glob:org/[!a-c]*", "org/x/y", false, false},
+            {"glob:org/[&^]", "org/^", true, true},
+            {"glob:org/[&^]", "org/&", true, true},
+            {"glob:**.{class,java}", "a/B.java", true, true},
+            {"glob:**.{class,java}", "a/B.jar", false, false},
+            {"glob:{a,b}/**", "b/c/d", true, true},
+            {"glob:a,b", "a,b", true, true},
+            {"glob:a}b", "a}b", true, true},
+            {"glob:(a+b)^$|.txt", "(a+b)^$|.txt", true, true},
+            {"glob:(a+b).txt", "(aab)Xtxt", false, false},
+            {"glob:org\\Bar.class", "org/Bar.class", true, true},
+            {"glob:META-INF/*.MF", "meta-inf/manifest.mf", false, true},
+            {"regex:.*/Bar\\.class", "org/foo/Bar.class", true, true},
+            {"regex:Bar", "org/foo/Bar.class", false, false},
+            {"org.foo.Bar.class", "org/foo/Bar.class", true, true},
+            {"org.foo.Bar.class", "x/org/foo/Bar.class", true, true},
+            {"org.foo.Bar.class", "org/foo/Bar.java", false, false},
+            {"org.foo", "org/foo/Bar.class", true, true},
+            {"org.foo.bar", "org/foo/Bar.class", false, true},
+            {"org\\foo", "org/foo/Bar.class", true, true},
+    };
+
+    static void run() {
+        for (Object[] c : CASES) {
+            String query = (String) c[0], name = (String) c[1];
+            checkEquals(c[2], EntryMatcher.parse(query, true).matches(name), query + " on " + name);
+            checkEquals(c[3], EntryMatcher.parse(query, false).matches(name),
+                    query + " on " + name + " (case insensitive)");
+        }
+
+        for (String glob : new String[] {"a[bc", "{a,{b}}", "{a,b", "a[b/c]"}) {
+            try {
+                EntryMatcher.globToRegex(glob);
+                throw new AssertionError("Invalid glob accepted: " + glob);
+            } catch (PatternSyntaxException expected) {
+                // Fine
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.check;
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Both {@link ZipSearcher.ScanMode}s (and the central directory one with
+ * cached or indexed listings) find the same results in a
+ * {@link CorpusGenerator} corpus: names, contents, metadata filters and first
+ * hit per archive
+ */
+final class ScanModeTest {
+    private static final List<String> EXTNS = Arrays.asList("jar", "war");
+
+    /**
+     * @param corpus null to generate one (in a temp folder)
+     */
+    static void run(Path corpus) throws Exception {
+        if (corpus != null) {
+            search(corpus);
+            return;
+        }
+        Path dir = Files.createTempDirectory("zipsearch-corpus");
+        try {
+            new CorpusGenerator().generate(dir, 1);
+            search(dir);
+        } finally {
+            Tests.deleteRecursively(dir);
+        }
+    }
+
+    private static void search(Path corpus) throws Exception {
+        List<String> all = Arrays.asList(corpus.toString());
+        // Not huge/, for the searches reading the entries
+        List<String> notHuge = Arrays.asList(corpus.resolve("small").toString(), corpus.resolve("nested").toString());
+        String crc;
+        try (ZipFile zipFile = new ZipFile(corpus.resolve("small/small-00001.jar").toFile())) {
+            ZipEntry entry = zipFile.entries().nextElement();
+            crc = Long.toHexString(entry.getCrc());
+        }
+
+        checkSame(all, CorpusGenerator.NEEDLE.replace('/', '.'), s -> s);
+        checkSame(all, "glob:**/C1?.class", s -> s.metadataFilter(MetadataFilter.parse("size<1k")));
+        checkSame(notHuge, "glob:**.class", s -> s.contentToSearch(CorpusGenerator.NEEDLE_TEXT));
+        checkSame(notHuge, "glob:**.class", s -> s.contentToSearch(CorpusGenerator.NEEDLE_TEXT)
+                .metadataFilter(MetadataFilter.parse("size>1k")));
+        checkSame(notHuge, "glob:**.class", s -> s.contentToSearch(CorpusGenerator.NEEDLE_TEXT)
+                .firstHitPerArchive(true));
+        checkSame(notHuge, "glob:**.class", s -> s.metadataFilter(MetadataFilter.parse("crc=" + crc)));
+        // Nested archives filtered, yet searched in to
+        checkSame(notHuge, "lib", s -> s.metadataFilter(MetadataFilter.parse("size>1k")));
+        checkSame(notHuge, "lib", s -> s.metadataFilter(MetadataFilter.parse("method=stored"))
+                .firstHitPerArchive(true));
+        checkSame(notHuge, "lib", s -> s.metadataFilter(MetadataFilter.parse("mtime>=2000-01-01,method=deflated")));
+    }
+
+    private static void checkSame(List<String> paths, String query, UnaryOperator<ZipSearcher> options)
+            throws Exception {
+        ListingCache listingCache = new ListingCache(64 << 20);
+        Path indexDir = Files.createTempDirectory("zipsearch-index");
+        try {
+            EntryIndex index = EntryIndex.load(indexDir.resolve("entries.idx"), Diagnostics.getDefault());
+            List<String> expected = search(paths, query, options, s -> s.scanMode(ZipSearcher.ScanMode.STREAM));
+            check(!expected.isEmpty(), "Found " + query);
+            checkEquals(expected, search(paths, query, options,
+                    s -> s.scanMode(ZipSearcher.ScanMode.CENTRAL_DIRECTORY)), "Central directory results of " + query);
+            for (int i = 0; i < 2; i++) { // Listed, then from the cache or the index
+                checkEquals(expected, search(paths, query, options,
+                        s -> s.scanMode(ZipSearcher.ScanMode.CENTRAL_DIRECTORY).listingCache(listingCache)),
+                        "Cached results of " + query);
+                checkEquals(expected, search(paths, query, options,
+                        s -> s.scanMode(ZipSearcher.ScanMode.CENTRAL_DIRECTORY).index(index, false)),
+                        "Indexed results of " + query);
+            }
+        } finally {
+            Tests.deleteRecursively(indexDir);
+        }
+    }
+
+    private static List<String> search(List<String> paths, String query, UnaryOperator<ZipSearcher> options,
+                                       UnaryOperator<ZipSearcher> mode) {
+        ZipSearcher zipSearcher = mode.apply(options.apply(new ZipSearcher(paths, EXTNS, true, query, false)));
+        zipSearcher.startSearch();
+        List<String> results = new ArrayList<>();
+        for (Result result : zipSearcher.getNewResults()) {
+            check(result.resultType == Result.ResultType.MSG, "Error: " + result.msg());
+            results.add(result.msg() + ((result.offset != -1) ? " @" + result.offset : ""));
+        }
+        Collections.sort(results);
+        return results;
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.venkataraju.zipsearch;
+
+import static com.github.venkataraju.zipsearch.Tests.check;
+import static com.github.venkataraju.zipsearch.Tests.checkEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link SearchCheckpoint} files read back the results saved, for the same
+ * search and unchanged archives only
+ */
+final class SearchCheckpointTest {
+    private static final String SEARCH_KEY = "-c\0needle\0glob:**.class\0/libs";
+
+    static void run() throws Exception {
+        Path dir = Files.createTempDirectory("zipsearch-checkpoint");
+        try {
+            run(dir);
+        } finally {
+            Tests.deleteRecursively(dir);
+        }
+    }
+
+    private static void run(Path dir) throws Exception {
+        Path a = Files.write(dir.resolve("a.jar"), new byte[10]);
+        Path b = Files.write(dir.resolve("b.war"), new byte[20]);
+        Path checkpointFile = dir.resolve("search.ckpt");
+        Diagnostics diagnostics = new Diagnostics(Diagnostics.Level.OFF, System.err);
+
+        // Containers relative to the archive's path, shared by its results
+        String nested = "/WEB-INF/lib/\u00e9t\u00e9.jar";
+        List<Result> bResults = Arrays.asList(
+                Result.match("", "org/foo/Bar.class", null),
+                Result.contentMatch("", "org/foo/Baz.class", 1234567890123L, "needle"),
+                Result.contentMatch(nested, "org/foo/Bar.class", 0, null),
+                // Another String, the same once loaded
+                Result.match(new String(nested), "org/foo/Qux.class", "Methodref org/foo/Bar.baz:()V"));
+
+        SearchCheckpoint checkpoint = SearchCheckpoint.load(checkpointFile, SEARCH_KEY, diagnostics);
+        checkEquals(0, checkpoint.size(), "Archives done when new");
+        checkpoint.done(a, attrs(a), Collections.emptyList());
+        checkpoint.done(b, attrs(b), new ArrayList<>(bResults));
+        checkpoint.save();
+
+        checkpoint = SearchCheckpoint.load(checkpointFile, SEARCH_KEY, diagnostics);
+        checkEquals(2, checkpoint.size(), "Archives done");
+        checkEquals(Collections.emptyList(), checkpoint.results(a, attrs(a)), "Results of a");
+        List<Result> loaded = checkpoint.results(b, attrs(b));
+        checkEquals(bResults.size(), loaded.size(), "Results of b");
+        for (int i = 0; i < bResults.size(); i++)
+            checkSame(bResults.get(i), loaded.get(i));
+        check(loaded.get(2).container == loaded.get(3).container, "Container shared");
+
+        Files.setLastModifiedTime(b, FileTime.fromMillis(attrs(b).lastModifiedTime().toMillis() - 60_000));
+        check(checkpoint.results(b, attrs(b)) == null, "Not done once modified");
+        check(checkpoint.results(dir.resolve("c.jar"), attrs(a)) == null, "Not done");
+
+        checkEquals(0, SearchCheckpoint.load(checkpointFile, SEARCH_KEY + "x", diagnostics).size(),
+                "Archives done of another search");
+
+        checkpoint.delete();
+        check(!Files.exists(checkpointFile), "Deleted");
+        checkEquals(0, SearchCheckpoint.load(checkpointFile, SEARCH_KEY, diagnostics).size(), "Done once deleted");
+
+        // Corrupt: started over
+        checkpoint.done(a, attrs(a), Collections.emptyList());
+        checkpoint.save();
+        byte[] bytes = Files.readAllBytes(checkpointFile);
+        Files.write(checkpointFile, Arrays.copyOf(bytes, bytes.length - 1));
+        checkEquals(0, SearchCheckpoint.load(checkpointFile, SEARCH_KEY, diagnostics).size(), "Done when corrupt");
+    }
+
+    private static void checkSame(Result expected, Result actual) {
+        String what = "Result " + expected.container + " " + expected.text;
+        checkEquals(expected.resultType, actual.resultType, what);
+        checkEquals(expected.container, actual.container, what);
+        checkEquals(expected.text, actual.text, what);
+        checkEquals(expected.offset, actual.offset, what);
+        checkEquals(expected.pattern, actual.pattern, what);
+    }
+
+    private static BasicFileAttributes attrs(Path path) throws Exception {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+}
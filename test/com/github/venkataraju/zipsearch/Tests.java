@@ -0,0 +1,110 @@
+package com.github.venkataraju.zipsearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs the tests, without any test framework (so that they compile with
+ * {@code src/} and {@code bench/} alone). A failed check throws an
+ * {@link AssertionError}
+ */
+final class Tests {
+    private interface Test {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path corpus = (args.length > 0) ? Paths.get(args[0]) : null;
+        int failed = 0;
+        failed += run("ArchiveListingTest", ArchiveListingTest::run);
+        failed += run("EntryIndexTest", EntryIndexTest::run);
+        failed += run("ContentMatcherTest", ContentMatcherTest::run);
+        failed += run("AhoCorasickTest", AhoCorasickTest::run);
+        failed += run("EntryMatcherTest", EntryMatcherTest::run);
+        failed += run("ConstantPoolMatcherTest", ConstantPoolMatcherTest::run);
+        failed += run("SearchCheckpointTest", SearchCheckpointTest::run);
+        failed += run("ScanModeTest", () -> ScanModeTest.run(corpus));
+        System.out.println((failed == 0) ? "All passed" : failed + " failed");
+        System.exit((failed == 0) ? 0 : 1);
+    }
+
+    private static int run(String name, Test test) {
+        long start = System.nanoTime();
+        try {
+            test.run();
+            System.out.printf("PASS %s (%d ms)%n", name, (System.nanoTime() - start) / 1_000_000);
+            return 0;
+        } catch (Exception | AssertionError e) {
+            System.out.println("FAIL " + name);
+            e.printStackTrace(System.out);
+            return 1;
+        }
+    }
+
+    static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+
+    static void checkEquals(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual))
+            throw new AssertionError(what + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+
+    /**
+     * @param stored STORED entries, else DEFLATED
+     */
+    static byte[] zip(Map<String, byte[]> entries, boolean stored) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                ZipEntry entry = new ZipEntry(e.getKey());
+                byte[] data = e.getValue();
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    static byte[] readAllBytes(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int n; (n = is.read(buf)) != -1; )
+            bos.write(buf, 0, n);
+        return bos.toByteArray();
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}